@@ -0,0 +1,90 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.Random;
+
+/**
+ * Synthetic gestures for the benchmarks: each class is a random stroke through a few control points, and its
+ * samples are jittered copies of the stroke resampled to a given number of points.
+ */
+final class BenchmarkGestures {
+    private static final double SIZE = 200;
+    private static final int MIN_CONTROLS = 3;
+    private static final int MAX_CONTROLS = 8;
+    private static final double JITTER = 3;
+    private static final long POINT_INTERVAL = 10;
+
+    private BenchmarkGestures() {
+    }
+
+    /**
+     * @param classSeed
+     *            The seed identifying the class of the gesture
+     * @param sampleSeed
+     *            The seed identifying the sample within the class
+     * @param points
+     *            The number of points of the gesture
+     * @return The gesture
+     */
+    static Gesture create(long classSeed, long sampleSeed, int points) {
+        final Random shape = new Random(classSeed);
+        final int controls = MIN_CONTROLS + shape.nextInt(MAX_CONTROLS - MIN_CONTROLS + 1);
+        final double[] cx = new double[controls];
+        final double[] cy = new double[controls];
+        final double[] cl = new double[controls];
+        for (int i = 0; i < controls; i++) {
+            cx[i] = shape.nextDouble() * SIZE;
+            cy[i] = shape.nextDouble() * SIZE;
+            if (i > 0) {
+                cl[i] = cl[i - 1] + Math.hypot(cx[i] - cx[i - 1], cy[i] - cy[i - 1]);
+            }
+        }
+        final Random noise = new Random(classSeed * 31 + sampleSeed);
+        final Gesture gesture = new Gesture();
+        int segment = 1;
+        for (int i = 0; i < points; i++) {
+            final double at = cl[controls - 1] * i / (points - 1);
+            while (segment < controls - 1 && cl[segment] < at) {
+                segment++;
+            }
+            final double segmentLength = cl[segment] - cl[segment - 1];
+            final double f = segmentLength == 0 ? 0 : (at - cl[segment - 1]) / segmentLength;
+            final double x = cx[segment - 1] + f * (cx[segment] - cx[segment - 1]);
+            final double y = cy[segment - 1] + f * (cy[segment] - cy[segment - 1]);
+            gesture.addPoint(x + noise.nextGaussian() * JITTER, y + noise.nextGaussian() * JITTER, i * POINT_INTERVAL);
+        }
+        return gesture;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.AbstractMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the stages of the recognition of a gesture against a single template: polyline approximation,
+ * fusion of the vertexes, alignment of the polylines and distance at the best angle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+    private static final int FUSION_BATCH = 1000;
+
+    @Param({"16", "64", "256", "1024"})
+    private int points;
+
+    private Gesture gesture;
+    private Polyline unknown;
+    private Polyline template;
+    private Polyline alignedUnknown;
+    private Polyline alignedTemplate;
+    private final AlignedVertexes aligned = new AlignedVertexes();
+    private final PolyRecognizerGSS recognizer = new PolyRecognizerGSS();
+
+    @Setup
+    public void setup() {
+        gesture = BenchmarkGestures.create(1, 0, points);
+        unknown = PolyRecognizerGSS.getPolyline(gesture);
+        template = PolyRecognizerGSS.getPolyline(BenchmarkGestures.create(1, 1, points));
+        final AbstractMap.SimpleEntry<Polyline, Polyline> pair = new PolylineAligner(unknown, template).align();
+        alignedUnknown = pair.getKey();
+        alignedTemplate = pair.getValue();
+    }
+
+    @Benchmark
+    public Polyline douglasPeucker() {
+        return new DouglasPeuckerReducer(gesture, PolyRecognizerGSS.getDprParams()).find();
+    }
+
+    /**
+     * Measured in batches of fusions, each one on a different reducer: the score is the time of a whole batch.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = FUSION_BATCH)
+    @Measurement(iterations = 20, batchSize = FUSION_BATCH)
+    public DouglasPeuckerReducer fusion(Reduced state) {
+        final DouglasPeuckerReducer reducer = state.reducers[state.next++];
+        reducer.fusion2();
+        return reducer;
+    }
+
+    @Benchmark
+    public NeedlemanWunsch needlemanWunsch() {
+        return new NeedlemanWunsch(unknown, template);
+    }
+
+    @Benchmark
+    public AbstractMap.SimpleEntry<Polyline, Polyline> align() {
+        return new PolylineAligner(unknown, template).align();
+    }
+
+    @Benchmark
+    public AlignedVertexes alignInto() {
+        PolylineAligner.align(unknown, template, aligned);
+        return aligned;
+    }
+
+    @Benchmark
+    public Double distanceAtBestAngle() {
+        return recognizer.getDistanceAtBestAngle(alignedUnknown, alignedTemplate, false);
+    }
+
+    /**
+     * The fusion modifies the vertexes of the reducer, so each invocation of a batch takes a different reducer, from
+     * the ones prepared before the batch: a setup per invocation would be timed along with the fusion.
+     */
+    @State(Scope.Thread)
+    public static class Reduced {
+        private final DouglasPeuckerReducer[] reducers = new DouglasPeuckerReducer[FUSION_BATCH];
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void reduce(PipelineBenchmark benchmark) {
+            final Gesture gesture = benchmark.gesture;
+            final Double[] params = PolyRecognizerGSS.getDprParams();
+            for (int i = 0; i < reducers.length; i++) {
+                reducers[i] = new DouglasPeuckerReducer(gesture, params);
+                reducers[i].reduceWithTolerance(gesture.getPoints(), gesture.getDiagonal() / params[1]);
+            }
+            next = 0;
+        }
+    }
+}
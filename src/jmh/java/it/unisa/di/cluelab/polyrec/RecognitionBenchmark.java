@@ -0,0 +1,98 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmark of {@link PolyRecognizerGSS#recognize(Gesture)} against a growing number of templates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecognitionBenchmark {
+    private static final int TEMPLATES_PER_CLASS = 10;
+
+    @Param({"16", "64", "256"})
+    private int points;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int templates;
+
+    private PolyRecognizerGSS recognizer;
+    private Gesture gesture;
+
+    @Setup
+    public void setup() {
+        recognizer = new PolyRecognizerGSS();
+        final Map<String, List<Gesture>> classes = new HashMap<String, List<Gesture>>();
+        for (int i = 0; i < templates; i++) {
+            final int c = i / TEMPLATES_PER_CLASS;
+            final String name = "class" + c;
+            List<Gesture> samples = classes.get(name);
+            if (samples == null) {
+                samples = new ArrayList<Gesture>();
+                classes.put(name, samples);
+            }
+            samples.add(BenchmarkGestures.create(c, i % TEMPLATES_PER_CLASS, points));
+        }
+        recognizer.addTemplates(classes);
+        // a new sample of a class in the middle of the templates
+        gesture = BenchmarkGestures.create((templates - 1) / TEMPLATES_PER_CLASS / 2, TEMPLATES_PER_CLASS, points);
+    }
+
+    @Benchmark
+    public Result recognize() {
+        return recognizer.recognize(gesture);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+/**
+ * Reusable holder of the alignment of two polylines, filled by
+ * {@link PolylineAligner#align(Polyline, Polyline, AlignedVertexes)}. The aligned polylines are given as the indexes
+ * of their vertexes in the respective gestures. The buffers grow as needed and are reused by the next alignment, so a
+ * holder must not be shared among threads.
+ */
+public class AlignedVertexes {
+    private static final int INITIAL_CAPACITY = 32;
+
+    int[] thisVertexes = new int[INITIAL_CAPACITY];
+    int[] otherVertexes = new int[INITIAL_CAPACITY];
+    int thisCount;
+    int otherCount;
+    int addedAngles;
+    int matches;
+    final FlatNeedlemanWunsch nw = new FlatNeedlemanWunsch();
+    // vertexes added to each polyline, in order
+    int[] addedThis = new int[INITIAL_CAPACITY];
+    int[] addedOther = new int[INITIAL_CAPACITY];
+
+    void ensureCapacity(int capacity) {
+        if (thisVertexes.length < capacity) {
+            final int newCapacity = Math.max(capacity, 2 * thisVertexes.length);
+            thisVertexes = new int[newCapacity];
+            otherVertexes = new int[newCapacity];
+            addedThis = new int[newCapacity];
+            addedOther = new int[newCapacity];
+        }
+    }
+
+    /**
+     * @return The buffer holding the vertexes of the first aligned polyline, valid up to {@link #getThisCount()}
+     */
+    public int[] getThisVertexes() {
+        return thisVertexes;
+    }
+
+    /**
+     * @return The number of vertexes of the first aligned polyline
+     */
+    public int getThisCount() {
+        return thisCount;
+    }
+
+    /**
+     * @return The buffer holding the vertexes of the second aligned polyline, valid up to {@link #getOtherCount()}
+     */
+    public int[] getOtherVertexes() {
+        return otherVertexes;
+    }
+
+    /**
+     * @return The number of vertexes of the second aligned polyline
+     */
+    public int getOtherCount() {
+        return otherCount;
+    }
+
+    /**
+     * @return The number of vertexes added to the polylines
+     */
+    public int getAddedAngles() {
+        return addedAngles;
+    }
+
+    /**
+     * @return The number of matched vertexes, including the endpoints
+     */
+    public int getMatches() {
+        return matches;
+    }
+
+}
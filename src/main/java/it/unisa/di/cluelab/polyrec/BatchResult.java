@@ -0,0 +1,116 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Results of the recognition of a batch of gestures, with throughput statistics.
+ */
+public class BatchResult {
+    private final List<Result> results;
+    private final int threads;
+    private final long elapsedNanos;
+
+    BatchResult(List<Result> results, int threads, long elapsedNanos) {
+        this.results = Collections.unmodifiableList(results);
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The results, in the order of the input gestures. An element is null if the corresponding gesture could
+     *         not be recognized.
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * @return The number of gestures in the batch
+     */
+    public int getGestures() {
+        return results.size();
+    }
+
+    /**
+     * @return The number of recognized gestures
+     */
+    public int getRecognized() {
+        int recognized = 0;
+        for (Result r : results) {
+            if (r != null) {
+                recognized++;
+            }
+        }
+        return recognized;
+    }
+
+    /**
+     * @return The number of threads which recognized gestures, at most the parallelism of the batch
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return The elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return The number of gestures recognized per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return The mean time spent per gesture by each thread, in nanoseconds
+     */
+    public double getMeanLatencyNanos() {
+        return results.isEmpty() ? 0 : (double) elapsedNanos * threads / results.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d gestures (%d recognized) in %.1f ms on %d threads: %.1f gestures/s",
+                getGestures(), getRecognized(), elapsedNanos / 1e6, threads, getThroughput());
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pre-filter index over the templates of a generation. It shortlists the templates whose cheap features (number of
+ * vertexes, indicative angle, aspect ratio, straightness, number of pointers) are the most similar to the ones of a
+ * query, so that the expensive matching is only performed on them.
+ */
+final class CandidateIndex {
+    private final TemplateStore.Generation generation;
+    private final PolylineFeatures[] features;
+    private final int[] pointers;
+    private final boolean[] rotInv;
+
+    /**
+     * @param generation
+     *            The indexed templates
+     */
+    CandidateIndex(TemplateStore.Generation generation) {
+        this.generation = generation;
+        final List<Template> templates = generation.getTemplates();
+        this.features = new PolylineFeatures[templates.size()];
+        this.pointers = new int[templates.size()];
+        this.rotInv = new boolean[templates.size()];
+        for (int i = 0; i < features.length; i++) {
+            final Template t = templates.get(i);
+            features[i] = t.getFeatures();
+            pointers[i] = t.getGesture().getPointers();
+            rotInv[i] = t.getGesture().isRotInv();
+        }
+    }
+
+    /**
+     * @return The indexed generation
+     */
+    TemplateStore.Generation getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Selects the templates most similar to a query.
+     * 
+     * @param query
+     *            The features of the query
+     * @param queryPointers
+     *            The number of pointers of the query
+     * @param size
+     *            The maximum number of templates to select
+     * @return The selected templates, in the order of the generation
+     */
+    List<Template> shortlist(PolylineFeatures query, int queryPointers, int size) {
+        final double[] scores = new double[features.length];
+        int eligible = 0;
+        for (int i = 0; i < features.length; i++) {
+            if (pointers[i] == queryPointers) {
+                scores[i] = query.dissimilarity(features[i], rotInv[i]);
+                // templates with undefined features are kept
+                if (Double.isNaN(scores[i])) {
+                    scores[i] = Double.NEGATIVE_INFINITY;
+                }
+                eligible++;
+            } else {
+                scores[i] = Double.NaN;
+            }
+        }
+        final List<Template> templates = generation.getTemplates();
+        final List<Template> res = new ArrayList<Template>(Math.min(size, eligible));
+        if (eligible <= size) {
+            for (int i = 0; i < scores.length; i++) {
+                if (!Double.isNaN(scores[i])) {
+                    res.add(templates.get(i));
+                }
+            }
+            return res;
+        }
+        // the size-th smallest score: templates below it are all selected, ties are taken in order
+        final double[] eligibleScores = new double[eligible];
+        int e = 0;
+        for (double s : scores) {
+            if (!Double.isNaN(s)) {
+                eligibleScores[e++] = s;
+            }
+        }
+        final double kth = select(eligibleScores, size - 1);
+        int ties = 0;
+        for (double s : eligibleScores) {
+            if (s < kth) {
+                ties++;
+            }
+        }
+        ties = size - ties;
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] < kth || (scores[i] == kth && ties-- > 0)) {
+                res.add(templates.get(i));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Quickselect.
+     * 
+     * @param a
+     *            The values, which get partially sorted
+     * @param k
+     *            The zero-based rank of the value to find
+     * @return The k-th smallest value
+     */
+    private static double select(double[] a, int k) {
+        int lo = 0;
+        int hi = a.length - 1;
+        while (hi - lo > 16) {
+            final double pivot = median(a[lo], a[(lo + hi) >>> 1], a[hi]);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final double tmp = a[i];
+                    a[i++] = a[j];
+                    a[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return a[k];
+            }
+        }
+        Arrays.sort(a, lo, hi + 1);
+        return a[k];
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+/**
+ * Immutable packed form of the vectors of a polyline, as returned by {@link Polyline#getVectors()}, with their
+ * trigonometry precomputed. Rotating the vectors then only requires the angle-addition identities, with no
+ * transcendental function evaluated per vector.
+ */
+final class CompiledPolyline {
+    final Polyline polyline;
+    // one element per line, followed by the invisible line
+    final double[] intensities;
+    final double[] angles;
+    final double[] cos;
+    final double[] sin;
+    // length of the polyline up to each vertex
+    final double[] lengths;
+    final double indicativeAngle;
+    // relative length of the gesture and slope change at each vertex, used by the alignment
+    final double[] lengthsAtAngles;
+    final double[] slopeChanges;
+
+    CompiledPolyline(Polyline polyline) {
+        this.polyline = polyline;
+        final int vectors = polyline.getNumVertexes();
+        this.intensities = new double[vectors];
+        this.angles = new double[vectors];
+        this.cos = new double[vectors];
+        this.sin = new double[vectors];
+        load(polyline, intensities, angles, vectors);
+        for (int i = 0; i < vectors; i++) {
+            cos[i] = Math.cos(angles[i]);
+            sin[i] = Math.sin(angles[i]);
+        }
+        this.lengths = new double[vectors];
+        for (int i = 0; i < vectors; i++) {
+            lengths[i] = polyline.getLength(i);
+        }
+        this.indicativeAngle = vectors == 0 ? 0 : polyline.getGesture().getIndicativeAngle(false);
+        this.lengthsAtAngles = new double[vectors];
+        this.slopeChanges = new double[vectors];
+        loadVertexFeatures(polyline, lengthsAtAngles, slopeChanges, vectors);
+    }
+
+    /**
+     * Rebuilds the compiled form of a polyline from stored values.
+     * 
+     * @param polyline
+     *            The polyline
+     * @param arrays
+     *            The intensities, angles, cosines, sines, lengths, relative lengths at the vertexes and slope changes,
+     *            which are not copied
+     * @param indicativeAngle
+     *            The indicative angle of the gesture
+     */
+    CompiledPolyline(Polyline polyline, double[][] arrays, double indicativeAngle) {
+        this.polyline = polyline;
+        this.intensities = arrays[0];
+        this.angles = arrays[1];
+        this.cos = arrays[2];
+        this.sin = arrays[3];
+        this.lengths = arrays[4];
+        this.lengthsAtAngles = arrays[5];
+        this.slopeChanges = arrays[6];
+        this.indicativeAngle = indicativeAngle;
+    }
+
+    /**
+     * @return The number of vectors
+     */
+    int size() {
+        return intensities.length;
+    }
+
+    /**
+     * Extracts the features of the first vertexes of a polyline used by the alignment.
+     * 
+     * @param p
+     *            The polyline
+     * @param lengthsAtAngles
+     *            The array receiving the relative lengths of the gesture at the vertexes
+     * @param slopeChanges
+     *            The array receiving the slope changes at the vertexes
+     * @param vertexes
+     *            The number of vertexes
+     */
+    static void loadVertexFeatures(Polyline p, double[] lengthsAtAngles, double[] slopeChanges, int vertexes) {
+        for (int i = 0; i < vertexes; i++) {
+            lengthsAtAngles[i] = p.getLengthAtAngle(i);
+            slopeChanges[i] = p.getSlopeChange(i);
+        }
+    }
+
+    /**
+     * Extracts the first vectors of a polyline.
+     * 
+     * @param p
+     *            The polyline
+     * @param intensities
+     *            The array receiving the intensities
+     * @param angles
+     *            The array receiving the angles
+     * @param vectors
+     *            The number of vectors to extract, the last one being the invisible line
+     */
+    private static void load(Polyline p, double[] intensities, double[] angles, int vectors) {
+        if (vectors == 0) {
+            return;
+        }
+        final int lines = vectors - 1;
+        for (int i = 0; i < lines; i++) {
+            intensities[i] = p.getLineIntensity(i);
+            angles[i] = p.getLineSlope(i);
+        }
+        intensities[lines] = p.getInvisibleLineIntensity();
+        angles[lines] = p.getInvisibleLineSlope();
+    }
+
+}
@@ -68,29 +68,27 @@ public class DouglasPeuckerReducer extends PolylineFinder {
      *            (micro-degrees here)
      */
     public void reduceWithTolerance(ArrayList<TPoint> shape, double tol) {
-        final int n = shape.size();
+        final Gesture g = new Gesture();
+        g.setPoints(shape);
+        reduceWithTolerance(g, tol);
+    }
+
+    private void reduceWithTolerance(Gesture shape, double tol) {
+        final int n = shape.getNumPoints();
         // if a shape has 2 or less points it cannot be reduced
         if (tol <= 0 || n < 3) {
             return;
         }
 
-        final boolean[] marked = new boolean[n];
         // vertex indexes to keep will be marked as "true"
-        for (int i = 1; i < n - 1; i++) {
-            marked[i] = false;
-        }
+        final boolean[] marked = new boolean[n];
         // automatically add the first and last point to the returned shape
         marked[0] = true;
         marked[n - 1] = true;
 
         // the first and last points in the original shape are
         // used as the entry point to the algorithm.
-        douglasPeuckerReduction(shape, marked, tol, 0, n - 1);
-        // shape: original shape
-        // marked: reduced shape
-        // tol: tolerance
-        // 0: index of first point
-        // n - 1: index of last point
+        douglasPeuckerReduction(shape, 0, n - 1, marked, tol);
 
         // all done, return the reduced shape
         for (int i = 0; i < n; i++) {
@@ -101,58 +99,80 @@ public class DouglasPeuckerReducer extends PolylineFinder {
     }
 
     /**
-     * Reduce the points in shape between the specified first and last index. Mark the points to keep in marked[]
+     * Reduce the points in shape between the given points. Mark the points to keep in marked[], indexed from the
+     * first point. The segments still to be reduced are kept in an explicit stack, rather than through recursion: the
+     * pending segments are disjoint, so the stack never holds more than the number of points.
      * 
      * @param shape
      *            The original shape
+     * @param first
+     *            The index of the first point
+     * @param last
+     *            The index of the last point
      * @param marked
      *            The points to keep (marked as true)
      * @param tol
      *            The tolerance to determine if a point is kept
-     * @param firstIdx
-     *            The index in original shape's point of the starting point for this line segment
-     * @param lastIdx
-     *            The index in original shape's point of the ending point for this line segment
+     * @return The number of distances computed
      */
-    private static void douglasPeuckerReduction(ArrayList<TPoint> shape, boolean[] marked, double tol, int firstIdx,
-            int lastIdx) {
-        if (lastIdx <= firstIdx + 1) {
-            // overlapping indexes, just return
-            return;
-        }
-
-        // loop over the points between the first and last points
-        // and find the point that is the farthest away
-
-        double maxDistance = 0.0;
-        int indexFarthest = 0;
-
-        final TPoint firstPoint = shape.get(firstIdx);
-        final TPoint lastPoint = shape.get(lastIdx);
-
-        for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
-            final TPoint point = shape.get(idx);
-
-            final double distance = orthogonalDistance(point, firstPoint, lastPoint);
-
-            // keep the point with the greatest distance
-            if (distance > maxDistance) {
-                maxDistance = distance;
-                indexFarthest = idx;
+    static int douglasPeuckerReduction(Gesture shape, int first, int last, boolean[] marked, double tol) {
+        final int[] stack = new int[2 * (last - first + 1)];
+        int top = 0;
+        int computed = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            final int lastIdx = stack[--top];
+            final int firstIdx = stack[--top];
+
+            // loop over the points between the first and last points
+            // and find the point that is the farthest away
+
+            double maxDistance = 0.0;
+            int indexFarthest = 0;
+
+            final double firstX = shape.getX(firstIdx);
+            final double firstY = shape.getY(firstIdx);
+            final double lastX = shape.getX(lastIdx);
+            final double lastY = shape.getY(lastIdx);
+            final boolean degenerate = firstX == lastX && firstY == lastY;
+            // the length of the segment is computed once for all of the points
+            final double bottom = degenerate ? 0 : Math.hypot(firstY - lastY, firstX - lastX);
+
+            computed += lastIdx - firstIdx - 1;
+            for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
+                final double x = shape.getX(idx);
+                final double y = shape.getY(idx);
+                final double distance = degenerate
+                        ? Math.sqrt((x - firstX) * (x - firstX) + (y - firstY) * (y - firstY))
+                        : orthogonalDistance(x, y, firstX, firstY, lastX, lastY, bottom);
+
+                // keep the point with the greatest distance
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    indexFarthest = idx;
+                }
             }
-        }
-
-        if (maxDistance > tol) {
-            // The farthest point is outside the tolerance: it is marked and the algorithm continues.
-            marked[indexFarthest] = true;
-
-            // reduce the shape between the starting point to newly found point
-            douglasPeuckerReduction(shape, marked, tol, firstIdx, indexFarthest);
 
-            // reduce the shape between the newly found point and the finishing point
-            douglasPeuckerReduction(shape, marked, tol, indexFarthest, lastIdx);
+            if (maxDistance > tol) {
+                // The farthest point is outside the tolerance: it is marked and the algorithm continues.
+                marked[indexFarthest - first] = true;
+
+                // reduce the shape between the starting point to newly found point
+                if (indexFarthest > firstIdx + 1) {
+                    stack[top++] = firstIdx;
+                    stack[top++] = indexFarthest;
+                }
+
+                // reduce the shape between the newly found point and the finishing point
+                if (lastIdx > indexFarthest + 1) {
+                    stack[top++] = indexFarthest;
+                    stack[top++] = lastIdx;
+                }
+            }
+            // else: the farthest point is within the tolerance, the whole segment is discarded.
         }
-        // else: the farthest point is within the tolerance, the whole segment is discarded.
+        return computed;
     }
 
     /**
@@ -167,16 +187,20 @@ public class DouglasPeuckerReducer extends PolylineFinder {
      * @return The distance in points coordinate system
      */
     public static double orthogonalDistance(TPoint point, TPoint lineStart, TPoint lineEnd) {
-        if (lineStart.x == lineEnd.x && lineStart.y == lineEnd.y) {
-            return lineStart.distance(point);
-        }
+        return orthogonalDistance(point.x, point.y, lineStart.x, lineStart.y, lineEnd.x, lineEnd.y);
+    }
 
-        final double area = Math
-                .abs((1.0 * lineStart.y * lineEnd.x + 1.0 * lineEnd.y * point.x + 1.0 * point.y * lineStart.x
-                        - 1.0 * lineEnd.y * lineStart.x - 1.0 * point.y * lineEnd.x - 1.0 * lineStart.y * point.x)
-                        / 2.0);
+    static double orthogonalDistance(double x, double y, double startX, double startY, double endX, double endY) {
+        if (startX == endX && startY == endY) {
+            return Math.sqrt((x - startX) * (x - startX) + (y - startY) * (y - startY));
+        }
+        return orthogonalDistance(x, y, startX, startY, endX, endY, Math.hypot(startY - endY, startX - endX));
+    }
 
-        final double bottom = Math.hypot(lineStart.y - lineEnd.y, lineStart.x - lineEnd.x);
+    private static double orthogonalDistance(double x, double y, double startX, double startY, double endX,
+            double endY, double bottom) {
+        final double area = Math.abs((1.0 * startY * endX + 1.0 * endY * x + 1.0 * y * startX - 1.0 * endY * startX
+                - 1.0 * y * endX - 1.0 * startY * x) / 2.0);
 
         return area / bottom * 2.0;
     }
@@ -189,7 +213,7 @@ public class DouglasPeuckerReducer extends PolylineFinder {
     @Override
     public Polyline find() {
         // calcCount++;
-        reduceWithTolerance(gesture.points, tolerance);
+        reduceWithTolerance(gesture, tolerance);
         fusion2();
         return getPoly();
     }
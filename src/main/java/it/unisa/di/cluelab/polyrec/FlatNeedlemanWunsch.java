@@ -0,0 +1,270 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+/**
+ * Reusable implementation of the alignment performed by {@link NeedlemanWunsch}. The scores are kept in a flat array
+ * and the traceback directions in a byte matrix, so that the similarity of each pair of vertexes is computed only
+ * once. The buffers grow as needed and are reused by the next alignment, so an instance must not be shared among
+ * threads.
+ * <p>
+ * The alignment can be restricted to a band around the diagonal of the matrix, i.e. the path matching vertexes at the
+ * same relative position in the two polylines. The band is widened as long as the best path touches its edges, since
+ * the optimal alignment could lie outside it.
+ */
+final class FlatNeedlemanWunsch {
+    private static final int INITIAL_CAPACITY = 32;
+    private static final byte DIAG = 0;
+    private static final byte LEFT = 1;
+    private static final byte UP = 2;
+    private static final double OUTSIDE = Double.NEGATIVE_INFINITY;
+
+    private double[] scores = new double[INITIAL_CAPACITY * INITIAL_CAPACITY];
+    private byte[] directions = new byte[INITIAL_CAPACITY * INITIAL_CAPACITY];
+    // per-vertex features of polylines without a compiled form
+    private double[] lengthsA = new double[INITIAL_CAPACITY];
+    private double[] slopesA = new double[INITIAL_CAPACITY];
+    private double[] lengthsB = new double[INITIAL_CAPACITY];
+    private double[] slopesB = new double[INITIAL_CAPACITY];
+    // matched vertexes, from first to the end of the arrays
+    int[] matchedA = new int[INITIAL_CAPACITY];
+    int[] matchedB = new int[INITIAL_CAPACITY];
+    int first;
+    int matches;
+    int insertions;
+    int deletions;
+    double score;
+    // number of times the band was widened by the last alignment
+    int widenings;
+
+    /**
+     * Aligns two polylines. The matched vertexes are the same as {@link NeedlemanWunsch#getMatchedPoints()}.
+     * 
+     * @param a
+     *            The first polyline
+     * @param ca
+     *            The compiled form of the first polyline, or null if not available
+     * @param b
+     *            The second polyline
+     * @param cb
+     *            The compiled form of the second polyline, or null if not available
+     * @param band
+     *            The initial half width of the band of the matrix to fill, or 0 for filling the whole matrix
+     */
+    void align(Polyline a, CompiledPolyline ca, Polyline b, CompiledPolyline cb, int band) {
+        final int m = a.getNumLines();
+        final int n = b.getNumLines();
+        ensureCapacity(m, n);
+        if (ca != null) {
+            align(ca.lengthsAtAngles, ca.slopeChanges, m, cb, b, n, band);
+        } else {
+            CompiledPolyline.loadVertexFeatures(a, lengthsA, slopesA, m);
+            align(lengthsA, slopesA, m, cb, b, n, band);
+        }
+    }
+
+    /**
+     * Aligns a polyline to a template read in place from a library.
+     * 
+     * @param a
+     *            The first polyline
+     * @param ca
+     *            The compiled form of the first polyline, or null if not available
+     * @param b
+     *            The template
+     * @param band
+     *            The initial half width of the band of the matrix to fill, or 0 for filling the whole matrix
+     */
+    void align(Polyline a, CompiledPolyline ca, MappedTemplateLibrary.Cursor b, int band) {
+        final int m = a.getNumLines();
+        final int n = b.getNumVertexes() - 1;
+        ensureCapacity(m, n);
+        b.loadVertexFeatures(lengthsB, slopesB, n);
+        if (ca != null) {
+            align(ca.lengthsAtAngles, ca.slopeChanges, m, lengthsB, slopesB, n, band);
+        } else {
+            CompiledPolyline.loadVertexFeatures(a, lengthsA, slopesA, m);
+            align(lengthsA, slopesA, m, lengthsB, slopesB, n, band);
+        }
+    }
+
+    private void ensureCapacity(int m, int n) {
+        if (lengthsA.length < m || lengthsB.length < n) {
+            final int capacity = Math.max(Math.max(m, n), 2 * lengthsA.length);
+            lengthsA = new double[capacity];
+            slopesA = new double[capacity];
+            lengthsB = new double[capacity];
+            slopesB = new double[capacity];
+        }
+    }
+
+    private void align(double[] lengthsA, double[] slopesA, int m, CompiledPolyline cb, Polyline b, int n,
+            int band) {
+        if (cb != null) {
+            align(lengthsA, slopesA, m, cb.lengthsAtAngles, cb.slopeChanges, n, band);
+        } else {
+            CompiledPolyline.loadVertexFeatures(b, lengthsB, slopesB, n);
+            align(lengthsA, slopesA, m, lengthsB, slopesB, n, band);
+        }
+    }
+
+    /**
+     * Aligns two sequences of vertexes.
+     * 
+     * @param lengthsA
+     *            The relative length of the first gesture at each vertex, as {@link Polyline#getLengthAtAngle(int)}
+     * @param slopesA
+     *            The slope change of the first polyline at each vertex, as {@link Polyline#getSlopeChange(int)}
+     * @param m
+     *            The number of lines of the first polyline
+     * @param lengthsB
+     *            The relative length of the second gesture at each vertex
+     * @param slopesB
+     *            The slope change of the second polyline at each vertex
+     * @param n
+     *            The number of lines of the second polyline
+     * @param band
+     *            The initial half width of the band of the matrix to fill, or 0 for filling the whole matrix
+     */
+    void align(double[] lengthsA, double[] slopesA, int m, double[] lengthsB, double[] slopesB, int n, int band) {
+        final int columns = n + 1;
+        final int cells = (m + 1) * columns;
+        if (scores.length < cells) {
+            final int capacity = Math.max(cells, 2 * scores.length);
+            scores = new double[capacity];
+            directions = new byte[capacity];
+        }
+        final int full = Math.max(m, n);
+        // the bands of consecutive rows must overlap, for the band to contain a path
+        int width = band <= 0 || m == 0 ? full : Math.max(band, (n + m - 1) / m);
+        widenings = 0;
+        fill(lengthsA, slopesA, m, lengthsB, slopesB, n, width);
+        while (!traceback(m, n, width) && width < full) {
+            width *= 2;
+            widenings++;
+            fill(lengthsA, slopesA, m, lengthsB, slopesB, n, width);
+        }
+    }
+
+    // columns of the band of a row: its center lies on the diagonal of the matrix
+    private static int low(int i, int m, int n, int width) {
+        return Math.max(1, (i * n + m / 2) / m - width);
+    }
+
+    private static int high(int i, int m, int n, int width) {
+        return Math.min(n, (i * n + m / 2) / m + width);
+    }
+
+    private void fill(double[] lengthsA, double[] slopesA, int m, double[] lengthsB, double[] slopesB, int n,
+            int width) {
+        final int columns = n + 1;
+        final double[] d = scores;
+        final byte[] dir = directions;
+        for (int j = 0; j <= n; j++) {
+            d[j] = j * NeedlemanWunsch.GAP_COST;
+        }
+        for (int i = 1; i <= m; i++) {
+            final int row = i * columns;
+            final int low = low(i, m, n, width);
+            final int high = high(i, m, n, width);
+            d[row + low - 1] = low == 1 ? i * NeedlemanWunsch.GAP_COST : OUTSIDE;
+            final double lengthA = lengthsA[i - 1];
+            final double slopeA = slopesA[i - 1];
+            for (int j = low; j <= high; j++) {
+                final double scoreDiag = d[row - columns + j - 1]
+                        + NeedlemanWunsch.weight(lengthA, slopeA, lengthsB[j - 1], slopesB[j - 1]);
+                final double scoreLeft = d[row + j - 1] + NeedlemanWunsch.GAP_COST;
+                final double scoreUp = d[row - columns + j] + NeedlemanWunsch.GAP_COST;
+                final double best = Math.max(Math.max(scoreDiag, scoreLeft), scoreUp);
+                d[row + j] = best;
+                // same priority of the traceback of NeedlemanWunsch
+                dir[row + j] = scoreDiag == best ? DIAG : scoreLeft == best ? LEFT : UP;
+            }
+            // cells of the row read by the next one, outside the band
+            final int next = i < m ? high(i + 1, m, n, width) : high;
+            for (int j = high + 1; j <= next; j++) {
+                d[row + j] = OUTSIDE;
+            }
+        }
+    }
+
+    /**
+     * @return false if the best path touches the edges of the band
+     */
+    private boolean traceback(int m, int n, int width) {
+        final int columns = n + 1;
+        final int capacity = Math.min(m, n) + 1;
+        if (matchedA.length < capacity) {
+            final int newCapacity = Math.max(capacity, 2 * matchedA.length);
+            matchedA = new int[newCapacity];
+            matchedB = new int[newCapacity];
+        }
+        matches = 0;
+        insertions = 0;
+        deletions = 0;
+        score = scores[m * columns + n] / (m + n);
+        // the alignment is filled back to front, starting from the endpoints
+        int k = matchedA.length - 1;
+        matchedA[k] = m;
+        matchedB[k] = n;
+        int i = m;
+        int j = n;
+        boolean inside = true;
+        while (i > 0 && j > 0) {
+            final int low = low(i, m, n, width);
+            final int high = high(i, m, n, width);
+            if (j == low && low > 1 || j == high && high < n) {
+                inside = false;
+            }
+            final byte direction = directions[i * columns + j];
+            if (direction == DIAG) {
+                i--;
+                j--;
+                k--;
+                matchedA[k] = i;
+                matchedB[k] = j;
+                matches++;
+            } else if (direction == LEFT) {
+                insertions++;
+                j--;
+            } else {
+                deletions++;
+                i--;
+            }
+        }
+        first = k;
+        return inside;
+    }
+
+}
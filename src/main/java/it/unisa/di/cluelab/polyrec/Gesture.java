@@ -35,27 +35,53 @@ package it.unisa.di.cluelab.polyrec;
 
 import it.unisa.di.cluelab.polyrec.geom.Rectangle2D;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.RandomAccess;
 
 /**
- * Gesture class.
+ * Gesture class. The points are stored in primitive arrays: {@link TPoint} objects are only created as views, when
+ * requested through the public API.
  * 
  * @author Vittorio
  *
  */
 public class Gesture implements Serializable {
     private static final long serialVersionUID = 6379977016996208165L;
-    // TODO CHECKSTYLE:OFF
-    ArrayList<TPoint> points;
-    // CHECKSTYLE:ON
+    // serialized form of the former list based storage, so that existing .pgs files can still be exchanged
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("points", ArrayList.class), new ObjectStreamField("info", GestureInfo.class),
+        new ObjectStreamField("centroid", TPoint.class), new ObjectStreamField("lengths", ArrayList.class),
+        new ObjectStreamField("boundingBox", Rectangle2D.Double.class),
+        new ObjectStreamField("rotInv", Boolean.TYPE), new ObjectStreamField("pointersNum", Integer.TYPE)};
+    private static final int INITIAL_CAPACITY = 16;
+
+    // coordinates and timestamps of the points, and length of the gesture up to each point
+    private double[] xs;
+    private double[] ys;
+    private long[] ts;
+    private double[] lengths;
+    private int size;
     private GestureInfo info;
-
-    private TPoint centroid;
-    private ArrayList<Double> lengths;
-    private Rectangle2D.Double boundingBox;
+    // running sums and extremes of the coordinates, updated as the points are added
+    private double sumX;
+    private double sumY;
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+
+    // caches of the objects built from the running values: each one is built locally and then published as a whole,
+    // so that a gesture shared among recognition threads (e.g. a template) never exposes a partially computed value
+    private volatile TPoint centroid;
+    private volatile Rectangle2D.Double boundingBox;
 
     // rotInv is false by default
     private boolean rotInv;
@@ -65,7 +91,62 @@ public class Gesture implements Serializable {
      * 
      */
     public Gesture() {
-        this.points = new ArrayList<TPoint>();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        xs = new double[capacity];
+        ys = new double[capacity];
+        ts = new long[capacity];
+        lengths = new double[capacity];
+        size = 0;
+        sumX = 0;
+        sumY = 0;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Builds a gesture from stored arrays, which are not copied.
+     * 
+     * @param xs
+     *            The x coordinates
+     * @param ys
+     *            The y coordinates
+     * @param ts
+     *            The timestamps
+     * @param lengths
+     *            The length of the gesture up to each point, as computed when the points were added
+     * @return The gesture
+     */
+    static Gesture wrap(double[] xs, double[] ys, long[] ts, double[] lengths) {
+        final int size = xs.length;
+        if (ys.length != size || ts.length != size || lengths.length != size) {
+            throw new IllegalArgumentException("Arrays of different lengths.");
+        }
+        final Gesture res = new Gesture();
+        res.allocate(0);
+        res.xs = xs;
+        res.ys = ys;
+        res.ts = ts;
+        res.lengths = lengths;
+        res.size = size;
+        res.updateAggregates();
+        return res;
+    }
+
+    /**
+     * @return A copy of the gesture, whose arrays are no larger than needed
+     */
+    Gesture trimmedCopy() {
+        final Gesture res = wrap(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size), Arrays.copyOf(ts, size),
+                Arrays.copyOf(lengths, size));
+        res.info = info;
+        res.rotInv = rotInv;
+        res.pointersNum = pointersNum;
+        return res;
     }
 
     /**
@@ -84,7 +165,6 @@ public class Gesture implements Serializable {
     }
 
     private void invalidate() {
-        lengths = null;
         centroid = null;
         boundingBox = null;
     }
@@ -93,16 +173,80 @@ public class Gesture implements Serializable {
      * @return the duration in milliseconds
      */
     public long getMilliseconds() {
-        final TPoint first = points.get(0);
-        final TPoint last = points.get(points.size() - 1);
-        return last.time - first.time;
+        return ts[size - 1] - ts[0];
+    }
+
+    /**
+     * @return The number of points
+     */
+    public int getNumPoints() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            The index of the point
+     * @return The x coordinate of the point
+     */
+    public double getX(int index) {
+        checkIndex(index);
+        return xs[index];
+    }
+
+    /**
+     * @param index
+     *            The index of the point
+     * @return The y coordinate of the point
+     */
+    public double getY(int index) {
+        checkIndex(index);
+        return ys[index];
+    }
+
+    /**
+     * @param index
+     *            The index of the point
+     * @return The timestamp of the point
+     */
+    public long getTime(int index) {
+        checkIndex(index);
+        return ts[index];
     }
 
     /**
-     * @return the points
+     * @param index
+     *            The index of the point
+     * @return A copy of the point
+     */
+    public TPoint getPoint(int index) {
+        checkIndex(index);
+        return new TPoint(xs[index], ys[index], ts[index]);
+    }
+
+    private void checkIndex(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * @return a copy of the points: changes to the list or to its points are not reflected by the gesture, use
+     *         {@link #setPoints(ArrayList)} or {@link #getPointsView()} to change them
      */
     public ArrayList<TPoint> getPoints() {
-        return this.points;
+        final ArrayList<TPoint> points = new ArrayList<TPoint>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new TPoint(xs[i], ys[i], ts[i]));
+        }
+        return points;
+    }
+
+    /**
+     * @return a view of the points: changes to the list, such as additions, removals and replacements of points, are
+     *         reflected by the gesture, while the points returned by the list are copies
+     */
+    public List<TPoint> getPointsView() {
+        return new PointList();
     }
 
     /**
@@ -116,10 +260,14 @@ public class Gesture implements Serializable {
 
     /**
      * @param points
-     *            The points
+     *            The points, which are copied into the gesture
      */
     public void setPoints(ArrayList<TPoint> points) {
-        this.points = points;
+        allocate(points.size());
+        for (TPoint point : points) {
+            append(point.x, point.y, point.time);
+        }
+        invalidate();
     }
 
     /**
@@ -129,17 +277,100 @@ public class Gesture implements Serializable {
      *            The new point
      */
     public void addPoint(TPoint point) {
-        points.add(point);
+        addPoint(point.x, point.y, point.time);
+    }
+
+    /**
+     * Appends a point to the gesture.
+     * 
+     * @param x
+     *            The x coordinate
+     * @param y
+     *            The y coordinate
+     * @param time
+     *            The timestamp
+     */
+    public void addPoint(double x, double y, long time) {
+        grow();
+        append(x, y, time);
+        invalidate();
+    }
+
+    private void grow() {
+        if (size == xs.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, 2 * size);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            ts = Arrays.copyOf(ts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+    }
+
+    /**
+     * Releases the unused capacity of the arrays.
+     */
+    void trimToSize() {
+        if (size < xs.length) {
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+            ts = Arrays.copyOf(ts, size);
+            lengths = Arrays.copyOf(lengths, size);
+        }
+    }
+
+    /**
+     * Updates the cumulative lengths from a point on, and the aggregates of all of the points, after the points have
+     * been modified in place.
+     * 
+     * @param from
+     *            The first modified point
+     */
+    private void update(int from) {
+        for (int i = from; i < size; i++) {
+            lengths[i] = i == 0 ? 0 : lengths[i - 1] + distance(i - 1, xs[i], ys[i]);
+        }
+        updateAggregates();
         invalidate();
     }
 
+    private void updateAggregates() {
+        sumX = 0;
+        sumY = 0;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            sumX += xs[i];
+            sumY += ys[i];
+            minX = Math.min(xs[i], minX);
+            maxX = Math.max(xs[i], maxX);
+            minY = Math.min(ys[i], minY);
+            maxY = Math.max(ys[i], maxY);
+        }
+    }
+
+    private void append(double x, double y, long time) {
+        xs[size] = x;
+        ys[size] = y;
+        ts[size] = time;
+        lengths[size] = size == 0 ? 0 : lengths[size - 1] + distance(size - 1, x, y);
+        size++;
+        sumX += x;
+        sumY += y;
+        minX = Math.min(x, minX);
+        maxX = Math.max(x, maxX);
+        minY = Math.min(y, minY);
+        maxY = Math.max(y, maxY);
+    }
+
     /**
      * @param sensitive
      *            Rotation sensitive or invariant context
      * @return The indicative angle
      */
     public double getIndicativeAngle(boolean sensitive) {
-        double iAngle = Math.atan2(-(getCentroid().y - points.get(0).y), getCentroid().x - points.get(0).x);
+        double iAngle = Math.atan2(-(getCentroid().y - ys[0]), getCentroid().x - xs[0]);
         iAngle = iAngle >= 0 ? iAngle : (2 * Math.PI + iAngle);
 
         double delta = 0.0;
@@ -154,65 +385,60 @@ public class Gesture implements Serializable {
 
     }
 
-    private void calculateCentroid() {
-        centroid = new TPoint(0.0d, 0.0d, 0L);
-        final Integer length = points.size();
-
-        final ListIterator<TPoint> iterator = points.listIterator();
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
-            centroid.x += point.x;
-            centroid.y += point.y;
-        }
-        centroid.x /= length;
-        centroid.y /= length;
+    private TPoint calculateCentroid() {
+        return new TPoint(sumX / size, sumY / size, 0L);
     }
 
     /**
      * @return The centroid of the points
      */
     public TPoint getCentroid() {
-        if (centroid == null) {
-            calculateCentroid();
-        }
-        return centroid;
-    }
-
-    private void calculateLengths() {
-        Double length = 0.0d;
-        lengths = new ArrayList<Double>();
-        lengths.add(length);
-        TPoint temTPoint = null;
-        final ListIterator<TPoint> iterator = points.listIterator();
-
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
-            if (temTPoint != null) {
-                // TPoint.dist( temTPoint, point );
-                length += temTPoint.distance(point);
-                lengths.add(length);
-            }
-            temTPoint = point;
+        TPoint c = centroid;
+        if (c == null) {
+            c = calculateCentroid();
+            centroid = c;
         }
+        return c;
+    }
+
+    /**
+     * @param index
+     *            The index of a point
+     * @param x
+     *            The x coordinate of another point
+     * @param y
+     *            The y coordinate of another point
+     * @return The distance between the points
+     */
+    double distance(int index, double x, double y) {
+        final double dx = x - xs[index];
+        final double dy = y - ys[index];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @param from
+     *            The index of a point
+     * @param to
+     *            The index of another point
+     * @return The distance between the points
+     */
+    double distance(int from, int to) {
+        return distance(from, xs[to], ys[to]);
     }
 
     /**
      * @return The distance between the two endpoints
      */
     protected double getEndpointsDistance() {
-        final TPoint first = points.get(0);
-        final TPoint last = points.get(points.size() - 1);
-        return first.distance(last);
+        return distance(0, size - 1);
     }
 
     /**
      * @return The length
      */
     public double getLength() {
-        if (lengths == null) {
-            calculateLengths();
-        }
-        return lengths.get(points.size() - 1);
+        return lengths[size - 1];
     }
 
     /**
@@ -223,12 +449,8 @@ public class Gesture implements Serializable {
      * @return The length between the points
      */
     protected double getLength(int start, int end) {
-
-        if (lengths == null) {
-            calculateLengths();
-        }
-
-        return lengths.get(end) - lengths.get(start);
+        checkIndex(end);
+        return lengths[end] - lengths[start];
     }
 
     /**
@@ -237,12 +459,8 @@ public class Gesture implements Serializable {
      * @return The length up to the point
      */
     protected double getLength(int point) {
-
-        if (lengths == null) {
-            calculateLengths();
-        }
-
-        return lengths.get(point);
+        checkIndex(point);
+        return lengths[point];
     }
 
     /**
@@ -250,7 +468,7 @@ public class Gesture implements Serializable {
      */
     public ArrayList<TPoint> getRotateToZero() {
         final TPoint centroid = getCentroid();
-        final double theta = Math.atan2(centroid.y - points.get(0).y, centroid.x - points.get(0).x);
+        final double theta = Math.atan2(centroid.y - ys[0], centroid.x - xs[0]);
         return getRotateBy(-theta);
     }
 
@@ -265,13 +483,11 @@ public class Gesture implements Serializable {
 
         final Double sin = Math.sin(theta);
         final Double cos = Math.cos(theta);
-        final ArrayList<TPoint> result = new ArrayList<TPoint>();
+        final ArrayList<TPoint> result = new ArrayList<TPoint>(size);
 
-        final ListIterator<TPoint> iterator = points.listIterator();
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
-            result.add(new TPoint((point.x - centroid.x) * cos - (point.y - centroid.y) * sin + centroid.x,
-                    (point.x - centroid.x) * sin + (point.y - centroid.y) * cos + centroid.y, point.time));
+        for (int i = 0; i < size; i++) {
+            result.add(new TPoint((xs[i] - centroid.x) * cos - (ys[i] - centroid.y) * sin + centroid.x,
+                    (xs[i] - centroid.x) * sin + (ys[i] - centroid.y) * cos + centroid.y, ts[i]));
         }
         return result;
     }
@@ -280,28 +496,16 @@ public class Gesture implements Serializable {
      * @return The bounding box
      */
     public Rectangle2D.Double getBoundingBox() {
-        if (boundingBox == null) {
-            calculateBoundingBox();
-        }
-        return boundingBox;
-    }
-
-    private void calculateBoundingBox() {
-        Double maxX = Double.NEGATIVE_INFINITY;
-        Double maxY = Double.NEGATIVE_INFINITY;
-        Double minX = Double.POSITIVE_INFINITY;
-        Double minY = Double.POSITIVE_INFINITY;
-
-        final ListIterator<TPoint> iterator = points.listIterator();
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
-            minX = Math.min(point.x, minX);
-            maxX = Math.max(point.x, maxX);
-            minY = Math.min(point.y, minY);
-            maxY = Math.max(point.y, maxY);
+        Rectangle2D.Double bbox = boundingBox;
+        if (bbox == null) {
+            bbox = calculateBoundingBox();
+            boundingBox = bbox;
         }
+        return bbox;
+    }
 
-        boundingBox = new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    private Rectangle2D.Double calculateBoundingBox() {
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
     }
 
     /**
@@ -315,8 +519,8 @@ public class Gesture implements Serializable {
     @Override
     public String toString() {
         final StringBuffer buf = new StringBuffer();
-        for (int i = 0; i < points.size(); i++) {
-            buf.append(points.get(i));
+        for (int i = 0; i < size; i++) {
+            buf.append(new TPoint(xs[i], ys[i], ts[i]));
         }
         return buf.toString();
     }
@@ -329,9 +533,14 @@ public class Gesture implements Serializable {
      * @return The subgesture between two points
      */
     public Gesture partOf(int fromIndex, int toIndex) {
-        final List<TPoint> sub = points.subList(fromIndex, toIndex);
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+        }
         final Gesture part = new Gesture();
-        part.setPoints(new ArrayList<TPoint>(sub));
+        part.allocate(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            part.append(xs[i], ys[i], ts[i]);
+        }
         return part;
     }
 
@@ -341,17 +550,39 @@ public class Gesture implements Serializable {
      * @return A point on the gesture
      */
     public int pointOnCurve(double length) {
-        final double referenceLength = getLength() * length;
-        double tempLength = 0;
-        for (int i = 1; i < points.size(); i++) {
-            final TPoint current = points.get(i);
-            final TPoint previous = points.get(i - 1);
-            tempLength += current.distance(previous);
-            if (tempLength >= referenceLength) {
-                return i;
+        return pointOnCurve(0, size, length);
+    }
+
+    /**
+     * Same as <code>partOf(fromIndex, toIndex).pointOnCurve(length)</code>, but the points are not copied: the point is
+     * found by a binary search of the cumulative lengths.
+     * 
+     * @param fromIndex
+     *            Start point index
+     * @param toIndex
+     *            End point index
+     * @param length
+     *            The distance from the start point in [0,1], relative to the length of the subgesture
+     * @return A point on the subgesture, as an index relative to the start point
+     */
+    public int pointOnCurve(int fromIndex, int toIndex, double length) {
+        if (fromIndex < 0 || toIndex > size || fromIndex >= toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+        }
+        final double start = lengths[fromIndex];
+        final double referenceLength = (lengths[toIndex - 1] - start) * length;
+        // first point at or beyond the reference length, excluding the start point
+        int low = fromIndex + 1;
+        int high = toIndex - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (lengths[mid] - start >= referenceLength) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
-        return points.size() - 1;
+        return Math.max(0, high - fromIndex);
     }
 
     /**
@@ -365,9 +596,7 @@ public class Gesture implements Serializable {
 
         final ArrayList<TPoint> translated = new ArrayList<TPoint>();
 
-        final ListIterator<TPoint> iterator = lp.listIterator();
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
+        for (TPoint point : lp) {
             translated.add(new TPoint(point.x - reference.x, point.y - reference.y, point.time));
         }
 
@@ -381,15 +610,34 @@ public class Gesture implements Serializable {
      */
     public ArrayList<TPoint> getTranslated(TPoint reference) {
 
-        final ArrayList<TPoint> translated = new ArrayList<TPoint>();
-        final ListIterator<TPoint> iterator = points.listIterator();
-        while (iterator.hasNext()) {
-            final TPoint point = iterator.next();
-            translated.add(new TPoint(point.x - reference.x, point.y - reference.y, point.time));
+        final ArrayList<TPoint> translated = new ArrayList<TPoint>(size);
+        for (int i = 0; i < size; i++) {
+            translated.add(new TPoint(xs[i] - reference.x, ys[i] - reference.y, ts[i]));
         }
         return translated;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        // same serialized form as when the points were stored in a list
+        fields.put("points", getPoints());
+        fields.put("info", info);
+        fields.put("rotInv", rotInv);
+        fields.put("pointersNum", pointersNum);
+        // the caches are rebuilt when needed
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        final ArrayList<TPoint> points = (ArrayList<TPoint>) fields.get("points", null);
+        setPoints(points == null ? new ArrayList<TPoint>() : points);
+        info = (GestureInfo) fields.get("info", null);
+        rotInv = fields.get("rotInv", false);
+        pointersNum = fields.get("pointersNum", 1);
+    }
+
     /* metodi aggiunti da Roberto */
     public boolean isRotInv() {
         return rotInv;
@@ -407,4 +655,64 @@ public class Gesture implements Serializable {
         this.pointersNum = pointers;
     }
 
+    /**
+     * List of the points backed by the arrays of the gesture.
+     */
+    private final class PointList extends AbstractList<TPoint> implements RandomAccess {
+
+        @Override
+        public TPoint get(int index) {
+            return getPoint(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public TPoint set(int index, TPoint point) {
+            final TPoint old = getPoint(index);
+            xs[index] = point.x;
+            ys[index] = point.y;
+            ts[index] = point.time;
+            update(index);
+            return old;
+        }
+
+        @Override
+        public void add(int index, TPoint point) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            grow();
+            System.arraycopy(xs, index, xs, index + 1, size - index);
+            System.arraycopy(ys, index, ys, index + 1, size - index);
+            System.arraycopy(ts, index, ts, index + 1, size - index);
+            xs[index] = point.x;
+            ys[index] = point.y;
+            ts[index] = point.time;
+            size++;
+            modCount++;
+            update(index);
+        }
+
+        @Override
+        public TPoint remove(int index) {
+            final TPoint old = getPoint(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(xs, toIndex, xs, fromIndex, size - toIndex);
+            System.arraycopy(ys, toIndex, ys, fromIndex, size - toIndex);
+            System.arraycopy(ts, toIndex, ts, fromIndex, size - toIndex);
+            size -= toIndex - fromIndex;
+            modCount++;
+            update(fromIndex);
+        }
+    }
+
 }
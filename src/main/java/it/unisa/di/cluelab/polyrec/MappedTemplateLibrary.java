@@ -0,0 +1,374 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A library of templates kept in a memory-mapped .pgs file, in the binary format written by
+ * {@link PolyRecognizerGSS#saveTemplatesPGS(java.io.OutputStream, boolean)} with the compiled vectors. Only the
+ * position of each template in the file is kept on the heap: the templates are matched reading their points and
+ * vectors in place from the mapped file, and only the ones among the best matches are decoded, so large libraries
+ * neither slow down the startup nor burden the garbage collector, and several processes can share the mapped file
+ * through the page cache.
+ * <p>
+ * Since the templates are not compiled again, the file must have been saved with the vectors, by a recognizer using
+ * the same compilation parameters.
+ * <p>
+ * A library is immutable and can be shared among recognition threads.
+ * 
+ * @see PolyRecognizerGSS#setLibrary(MappedTemplateLibrary)
+ */
+public final class MappedTemplateLibrary implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final TemplateFormat.Header header;
+    private final Set<String> classNames;
+    // class name, position in the file, position of the points and number of pointers of each template
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] points;
+    private final int[] pointers;
+
+    private MappedTemplateLibrary(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        final ByteBuffer b = view(0);
+        this.header = new TemplateFormat.Header(b, PolyRecognizerGSS.COMPILATION_CHECKSUM);
+        if (!header.trusted) {
+            throw new IOException("Templates compiled with different parameters.");
+        }
+        if (!header.vectors) {
+            throw new IOException("Templates saved without the compiled vectors.");
+        }
+        final List<String> classes = header.names;
+        this.classNames = Collections.unmodifiableSet(new LinkedHashSet<String>(classes));
+        this.names = new String[header.count];
+        this.offsets = new int[header.count];
+        this.points = new int[header.count];
+        this.pointers = new int[header.count];
+        int i = 0;
+        for (int c = 0; c < classes.size(); c++) {
+            for (int s = 0; s < header.sizes.get(c); s++, i++) {
+                names[i] = classes.get(c);
+                offsets[i] = b.position();
+                pointers[i] = TemplateFormat.skipTemplateHead(b);
+                points[i] = b.position();
+                TemplateFormat.skipTemplateBody(b, header);
+            }
+        }
+    }
+
+    /**
+     * Maps a .pgs file.
+     * 
+     * @param file
+     *            The file, in the binary format, with the compiled vectors
+     * @return The library
+     * @throws IOException
+     *             if an I/O error occurs, the file is not valid, or its templates must be compiled again.
+     */
+    public static MappedTemplateLibrary open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel channel = raf.getChannel();
+        boolean opened = false;
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            final MappedTemplateLibrary res = new MappedTemplateLibrary(channel,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            opened = true;
+            return res;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated .pgs file: " + file);
+        } finally {
+            if (!opened) {
+                raf.close();
+            }
+        }
+    }
+
+    private ByteBuffer view(int position) {
+        // each reader gets its own position
+        final ByteBuffer res = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        res.position(position);
+        return res;
+    }
+
+    /**
+     * @return The number of templates
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * @return The names of the classes
+     */
+    public Set<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * @param index
+     *            The position of the template in the library
+     * @return The class name of the template
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Decodes a template from the mapped file.
+     * 
+     * @param index
+     *            The position of the template in the library
+     * @return The template
+     */
+    public Template getTemplate(int index) {
+        try {
+            return TemplateFormat.readTemplate(view(offsets[index]), names[index], header);
+        } catch (IOException e) {
+            // the structure of the file was validated when it was opened, but not the content of the templates
+            throw new IllegalStateException("Corrupted .pgs file.", e);
+        }
+    }
+
+    /**
+     * @param index
+     *            The position of the template in the library
+     * @return The number of pointers of the template
+     */
+    int getPointers(int index) {
+        return pointers[index];
+    }
+
+    /**
+     * @return A new cursor reading the templates in place
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Closes the file. The mapping is released when the library is no more referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A template read in place from the mapped file, with the same values as its decoded {@link Gesture},
+     * {@link Polyline} and {@link CompiledPolyline}. A cursor is moved from template to template, and is meant to be
+     * used by a single thread.
+     */
+    final class Cursor {
+        private final ByteBuffer data = view(0);
+        private boolean rotInv;
+        private int numPoints;
+        private int numVertexes;
+        // positions of the arrays of the current template, as laid out by TemplateFormat
+        private int xs;
+        private int ys;
+        private int lengths;
+        private int indexes;
+        private double indicativeAngle;
+        private int intensities;
+        private int angles;
+        private int cos;
+        private int sin;
+        private int polylineLengths;
+        private int lengthsAtAngles;
+        private int slopeChanges;
+
+        private Cursor() {
+        }
+
+        /**
+         * @param index
+         *            The position of the template in the library
+         */
+        void moveTo(int index) {
+            rotInv = (data.getInt(offsets[index]) & TemplateFormat.FLAG_ROT_INV) != 0;
+            final int n = data.getInt(points[index]);
+            numPoints = n;
+            xs = points[index] + 4;
+            ys = xs + 8 * n;
+            // the timestamps are not used by the matching
+            lengths = ys + 16 * n;
+            final int m = data.getInt(lengths + 8 * n);
+            numVertexes = m;
+            indexes = lengths + 8 * n + 4;
+            final int vectors = indexes + 4 * m;
+            indicativeAngle = data.getDouble(vectors);
+            intensities = vectors + 8;
+            angles = intensities + 8 * m;
+            cos = angles + 8 * m;
+            sin = cos + 8 * m;
+            polylineLengths = sin + 8 * m;
+            lengthsAtAngles = polylineLengths + 8 * m;
+            slopeChanges = lengthsAtAngles + 8 * m;
+        }
+
+        boolean isRotInv() {
+            return rotInv;
+        }
+
+        int getNumPoints() {
+            return numPoints;
+        }
+
+        double getX(int point) {
+            return data.getDouble(xs + 8 * point);
+        }
+
+        double getY(int point) {
+            return data.getDouble(ys + 8 * point);
+        }
+
+        /**
+         * @see Gesture#distance(int, int)
+         */
+        double distance(int from, int to) {
+            final double dx = getX(to) - getX(from);
+            final double dy = getY(to) - getY(from);
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+
+        double getEndpointsDistance() {
+            return distance(0, numPoints - 1);
+        }
+
+        /**
+         * @return The length of the gesture up to the point
+         */
+        double getLength(int point) {
+            return data.getDouble(lengths + 8 * point);
+        }
+
+        /**
+         * @see Gesture#pointOnCurve(int, int, double)
+         */
+        int pointOnCurve(int fromIndex, int toIndex, double length) {
+            final double start = getLength(fromIndex);
+            final double referenceLength = (getLength(toIndex - 1) - start) * length;
+            int low = fromIndex + 1;
+            int high = toIndex - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (getLength(mid) - start >= referenceLength) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return Math.max(0, high - fromIndex);
+        }
+
+        int getNumVertexes() {
+            return numVertexes;
+        }
+
+        /**
+         * @return The index of the point at the vertex
+         */
+        int getPoint(int vertex) {
+            return data.getInt(indexes + 4 * vertex);
+        }
+
+        /**
+         * @see Polyline#getLengthProportion(int, int, int)
+         */
+        double getLengthProportion(int first, int last, int median) {
+            final double start = getLength(getPoint(first));
+            return (getLength(getPoint(median)) - start) / (getLength(getPoint(last)) - start);
+        }
+
+        /**
+         * @return The length of the polyline
+         */
+        double getPolylineLength() {
+            return data.getDouble(polylineLengths + 8 * (numVertexes - 1));
+        }
+
+        double getIndicativeAngle() {
+            return indicativeAngle;
+        }
+
+        double getIntensity(int vector) {
+            return data.getDouble(intensities + 8 * vector);
+        }
+
+        double getCos(int vector) {
+            return data.getDouble(cos + 8 * vector);
+        }
+
+        double getSin(int vector) {
+            return data.getDouble(sin + 8 * vector);
+        }
+
+        /**
+         * @return The slope of the segment connecting the two endpoints
+         */
+        double getInvisibleLineSlope() {
+            return data.getDouble(angles + 8 * (numVertexes - 1));
+        }
+
+        /**
+         * Reads the features of the first vertexes used by the alignment.
+         * 
+         * @see CompiledPolyline#loadVertexFeatures(Polyline, double[], double[], int)
+         */
+        void loadVertexFeatures(double[] lengthsAtAnglesDst, double[] slopeChangesDst, int vertexes) {
+            for (int i = 0; i < vertexes; i++) {
+                lengthsAtAnglesDst[i] = data.getDouble(lengthsAtAngles + 8 * i);
+                slopeChangesDst[i] = data.getDouble(slopeChanges + 8 * i);
+            }
+        }
+    }
+
+}
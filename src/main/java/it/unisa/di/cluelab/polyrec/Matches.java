@@ -0,0 +1,271 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The best matches found by a scan of the templates: the best templates and the best classes, each class being
+ * represented by its best template. Both are kept in bounded heaps, so that keeping several matches costs no more
+ * than a single pass over the templates. Ties are broken by the order of the templates in the scan.
+ */
+final class Matches {
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+            return c2.compareTo(c1);
+        }
+    };
+
+    private final int capacity;
+    private final PriorityQueue<Candidate> templates;
+    private final PriorityQueue<Candidate> classes;
+    // best template of the class currently being scanned
+    private Candidate classBest;
+    private int matched;
+    private int pruned;
+
+    /**
+     * @param capacity
+     *            The number of templates and of classes to keep
+     * @param keepClasses
+     *            Whether to keep the best classes too
+     */
+    Matches(int capacity, boolean keepClasses) {
+        this.capacity = capacity;
+        this.templates = new PriorityQueue<Candidate>(capacity + 1, WORST_FIRST);
+        this.classes = keepClasses ? new PriorityQueue<Candidate>(capacity + 1, WORST_FIRST) : null;
+    }
+
+    /**
+     * Returns the distance that a template must beat in order to be kept. Ties are lost by the template, since it
+     * comes after the kept ones in the scan.
+     * 
+     * @param name
+     *            The class name of the template
+     * @return The threshold distance
+     */
+    double getThreshold(String name) {
+        final double templateThreshold = templates.size() < capacity ? Double.POSITIVE_INFINITY
+                : templates.peek().distance;
+        if (classes == null) {
+            return templateThreshold;
+        }
+        // a template worse than the best ones may still be the best one of a class among the best ones
+        double classThreshold = classes.size() < capacity ? Double.POSITIVE_INFINITY : classes.peek().distance;
+        // within the class being scanned, it must also beat the best template found so far
+        if (classBest != null && classBest.template.getName().equals(name)) {
+            classThreshold = Math.min(classThreshold, classBest.distance);
+        }
+        return Math.max(templateThreshold, classThreshold);
+    }
+
+    /**
+     * Counts a template skipped because it cannot be kept.
+     */
+    void prune() {
+        pruned++;
+    }
+
+    /**
+     * Counts a template matched, whose distance is not below {@link #getThreshold(String)}: it would not be kept if
+     * offered.
+     */
+    void reject() {
+        matched++;
+    }
+
+    /**
+     * Offers a match. Templates of the same class must be offered consecutively.
+     * 
+     * @param template
+     *            The template
+     * @param order
+     *            The position of the template in the scan
+     * @param distance
+     *            The distance from the template
+     */
+    void offer(Template template, int order, double distance) {
+        matched++;
+        if (!(distance < Double.POSITIVE_INFINITY)) {
+            return;
+        }
+        final Candidate c = new Candidate(template, order, distance);
+        offer(templates, c);
+        if (classes == null) {
+            return;
+        }
+        if (classBest != null && !classBest.template.getName().equals(template.getName())) {
+            offer(classes, classBest);
+            classBest = null;
+        }
+        if (classBest == null || c.compareTo(classBest) < 0) {
+            classBest = c;
+        }
+    }
+
+    private void offer(PriorityQueue<Candidate> heap, Candidate c) {
+        if (heap.size() < capacity) {
+            heap.add(c);
+        } else if (c.compareTo(heap.peek()) < 0) {
+            heap.poll();
+            heap.add(c);
+        }
+    }
+
+    /**
+     * Completes the scan.
+     * 
+     * @return This object
+     */
+    Matches finish() {
+        if (classes != null && classBest != null) {
+            offer(classes, classBest);
+            classBest = null;
+        }
+        return this;
+    }
+
+    /**
+     * Merges the matches of another scan. Both scans must be finished.
+     * 
+     * @param other
+     *            The matches to merge
+     */
+    void merge(Matches other) {
+        matched += other.matched;
+        pruned += other.pruned;
+        for (Candidate c : other.templates) {
+            offer(templates, c);
+        }
+        if (classes == null) {
+            return;
+        }
+        // a class may have been split between the two scans
+        final Map<String, Candidate> byName = new LinkedHashMap<String, Candidate>();
+        for (Candidate c : classes) {
+            byName.put(c.template.getName(), c);
+        }
+        for (Candidate c : other.classes) {
+            final Candidate prev = byName.get(c.template.getName());
+            if (prev == null || c.compareTo(prev) < 0) {
+                byName.put(c.template.getName(), c);
+            }
+        }
+        classes.clear();
+        for (Candidate c : byName.values()) {
+            offer(classes, c);
+        }
+    }
+
+    /**
+     * @return The number of templates matched against the query
+     */
+    int getMatched() {
+        return matched;
+    }
+
+    /**
+     * @return The number of templates skipped because they could not be kept
+     */
+    int getPruned() {
+        return pruned;
+    }
+
+    /**
+     * @return The best template, or null if no template matched
+     */
+    Candidate getBest() {
+        Candidate best = null;
+        for (Candidate c : templates) {
+            if (best == null || c.compareTo(best) < 0) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The best templates, best first
+     */
+    List<Candidate> getTemplates() {
+        return sorted(templates);
+    }
+
+    /**
+     * @return The best templates of the best classes, best first
+     */
+    List<Candidate> getClasses() {
+        return sorted(classes);
+    }
+
+    private static List<Candidate> sorted(PriorityQueue<Candidate> heap) {
+        final List<Candidate> res = new ArrayList<Candidate>(heap);
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * A matched template.
+     */
+    static final class Candidate implements Comparable<Candidate> {
+        // CHECKSTYLE:OFF
+        final Template template;
+        final int order;
+        final double distance;
+        // CHECKSTYLE:ON
+
+        Candidate(Template template, int order, double distance) {
+            this.template = template;
+            this.order = order;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            final int res = Double.compare(distance, o.distance);
+            if (res != 0) {
+                return res;
+            }
+            return order < o.order ? -1 : (order == o.order ? 0 : 1);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of an n-best recognition: the best classes and the best templates, sorted from the best one.
+ */
+public class NBestResult {
+    private final List<Result> classes;
+    private final List<TemplateResult> templates;
+    private final int matchedTemplates;
+    private final int prunedTemplates;
+
+    NBestResult(List<Result> classes, List<TemplateResult> templates, int matchedTemplates, int prunedTemplates) {
+        this.classes = Collections.unmodifiableList(classes);
+        this.templates = Collections.unmodifiableList(templates);
+        this.matchedTemplates = matchedTemplates;
+        this.prunedTemplates = prunedTemplates;
+    }
+
+    /**
+     * @return The best classes, each one with the distance and score of its best template
+     */
+    public List<Result> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return The best templates
+     */
+    public List<TemplateResult> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return The best class (the same result returned by {@link Recognizer#recognize(Gesture)}), or null if the
+     *         gesture could not be recognized
+     */
+    public Result getBest() {
+        return classes.isEmpty() ? null : classes.get(0);
+    }
+
+    /**
+     * @return The number of templates matched against the gesture
+     */
+    public int getMatchedTemplates() {
+        return matchedTemplates;
+    }
+
+    /**
+     * @return The number of templates skipped by pruning, without matching them against the gesture
+     */
+    public int getPrunedTemplates() {
+        return prunedTemplates;
+    }
+
+}
@@ -45,7 +45,7 @@ import java.util.ArrayList;
  *
  */
 public class NeedlemanWunsch {
-    private static final double GAP_COST = 0.4;
+    static final double GAP_COST = 0.4;
     private static final double BALANCE = 0.6;
     private Polyline mSeqA;
     private Polyline mSeqB;
@@ -0,0 +1,131 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parallel loop over a range of indexes. The indexes are claimed one at a time by the calling thread and by the
+ * threads of an executor. The calling thread takes part in the loop and only waits for the indexes claimed by other
+ * threads, so the loop completes even if the executor is saturated (e.g. when loops are nested on the same executor).
+ */
+final class ParallelLoop {
+
+    /**
+     * The body of the loop.
+     */
+    interface Body {
+        /**
+         * @param index
+         *            The index of the iteration
+         */
+        void run(int index);
+    }
+
+    private ParallelLoop() {
+    }
+
+    /**
+     * Runs the loop and waits for its completion.
+     * 
+     * @param executor
+     *            The executor providing the additional threads, or null for running the loop in the calling thread
+     * @param parallelism
+     *            The maximum number of threads, including the calling one
+     * @param count
+     *            The number of iterations
+     * @param body
+     *            The body of the loop
+     * @return The number of threads which ran iterations, at least 1 for the calling thread
+     */
+    static int run(ExecutorService executor, int parallelism, final int count, final Body body) {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger threads = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                boolean counted = false;
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    if (!counted) {
+                        // before the count down, so that it is visible once the loop completes
+                        threads.incrementAndGet();
+                        counted = true;
+                    }
+                    try {
+                        if (failure.get() == null) {
+                            body.run(i);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        final int helpers = executor == null ? 0 : Math.min(parallelism, count) - 1;
+        for (int h = 0; h < helpers; h++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // the remaining iterations are run by the calling thread
+                break;
+            }
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        final Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+        return Math.max(threads.get(), 1);
+    }
+
+}
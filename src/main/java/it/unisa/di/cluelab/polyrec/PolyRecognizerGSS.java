@@ -33,17 +33,28 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package it.unisa.di.cluelab.polyrec;
 
+import it.unisa.di.cluelab.polyrec.geom.Point2D;
+import it.unisa.di.cluelab.polyrec.geom.Rectangle2D;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * The main recognizer class.
@@ -53,15 +64,39 @@ import java.util.TreeMap;
  */
 public class PolyRecognizerGSS extends Recognizer {
     private static final Double[] DPR_PARAMS = new Double[] {26d, 22d};
+    // to be increased whenever the computation of the polylines or of their vectors changes
+    private static final int COMPILATION_VERSION = 1;
+    /** Checksum of the parameters of the compilation of the templates, stored along with compiled templates. */
+    static final long COMPILATION_CHECKSUM = checksum(COMPILATION_VERSION, DPR_PARAMS);
     private static final boolean GSS = true;
     private static final Integer ANGLE_ROTATION_INVARIANT = 45;
     private static final Integer ANGLE_ROTATION_SENSITIVE = 25;
     private static final Integer ANGLE_STEP = 2;
     private static final boolean VERBOSE = false;
+    private static final int MIN_TEMPLATES_PER_CHUNK = 8;
+    private static final double LOWER_BOUND_TOLERANCE = 1e-9;
+    private static final int REFINEMENT_STEPS = 4;
+    private static final double[] DEFAULT_PREFIX_FRACTIONS = new double[] {.3, .4, .5, .6, .7, .8, .9, 1};
     protected Integer angleRotInv;
     protected Integer angleRotSen;
-    protected Integer angleStep;
+    protected volatile Integer angleStep;
     protected final Double phi;
+    private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+    private volatile RotationSearch rotationSearch = RotationSearch.GOLDEN_SECTION;
+    private volatile double pruningFactor;
+    private volatile int alignmentBand;
+    private volatile int shortlistSize;
+    private volatile CandidateIndex candidateIndex;
+    private volatile double[] prefixFractions = DEFAULT_PREFIX_FRACTIONS;
+    private volatile PrefixIndex prefixIndex;
+    private volatile MappedTemplateLibrary library;
+    private volatile ExecutorService scanExecutor;
+    private volatile int scanParallelism;
 
     /**
      * Build recognizer with default Golden Section Search parameters.
@@ -83,7 +118,6 @@ public class PolyRecognizerGSS extends Recognizer {
         this.angleRotInv = angleRotationInvariant;
         this.setRotationAngle(angleStep);
         this.phi = 0.5f * (-1.0f + Math.sqrt(5.0f));
-        templates = new TreeMap<String, ArrayList<Polyline>>();
         if (GSS) {
             method = "PolyRec-GSS";
         } else {
@@ -95,111 +129,648 @@ public class PolyRecognizerGSS extends Recognizer {
         return Arrays.copyOf(DPR_PARAMS, DPR_PARAMS.length);
     }
 
+    private static long checksum(int version, Double[] params) {
+        long res = version;
+        for (Double p : params) {
+            res = 31 * res + Double.doubleToLongBits(p);
+        }
+        return res;
+    }
+
+    @Override
+    protected long getCompilationChecksum() {
+        return COMPILATION_CHECKSUM;
+    }
+
     /*
      * (non-Javadoc)
      * 
-     * @see it.unisa.di.cluelab.polyrec.Recognizer#addTemplate(java.lang.String, it.unisa.di.cluelab.polyrec.Gesture)
+     * @see it.unisa.di.cluelab.polyrec.Recognizer#compileTemplate(java.lang.String,
+     * it.unisa.di.cluelab.polyrec.Gesture)
      */
     @Override
-    public int addTemplate(String name, Gesture gesture) {
-        final PolylineFinder tpf = new DouglasPeuckerReducer(gesture, PolyRecognizerGSS.DPR_PARAMS);
+    protected Template compileTemplate(String name, Gesture gesture) {
+        // the template keeps a private copy: the gesture of the caller may be modified or shared among threads
+        final PolylineFinder tpf = new DouglasPeuckerReducer(gesture.trimmedCopy(), PolyRecognizerGSS.DPR_PARAMS);
         final Polyline pl = tpf.find();
         if (pl.getIndexes().isEmpty()) {
             throw new IllegalArgumentException("Illegal gesture.");
         }
-        ArrayList<Polyline> templateClass = templates.get(name);
-        if (templateClass == null) {
-            templateClass = new ArrayList<Polyline>();
-            templates.put(name, templateClass);
+        return new Template(name, pl);
+    }
+
+    /**
+     * Enables the parallel scan of the templates within each recognition. The templates are split into chunks, which
+     * are matched concurrently; the result is the same as the one of the sequential scan. Recognitions involving few
+     * templates are still performed sequentially.
+     * 
+     * @param executor
+     *            The executor used for matching the chunks, or null for disabling the parallel scan
+     * @param parallelism
+     *            The maximum number of chunks in which the templates are split
+     */
+    public void setParallelScan(ExecutorService executor, int parallelism) {
+        if (executor != null && parallelism < 1) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
         }
-        templateClass.add(pl);
-        return templateClass.size();
+        this.scanExecutor = executor;
+        this.scanParallelism = parallelism;
     }
 
-    // TODO CHECKSTYLE:OFF
     /*
      * (non-Javadoc)
      * 
      * @see it.unisa.di.cluelab.polyrec.Recognizer#recognize(it.unisa.di.cluelab.polyrec.Gesture)
      */
     @Override
-    public synchronized Result recognize(Gesture gesture) {
+    public Result recognize(Gesture gesture) {
+        return recognize(getPolyline(gesture));
+    }
+
+    /**
+     * Starts the recognition of a gesture whose points are received while it is drawn.
+     * 
+     * @return The session receiving the points
+     */
+    public RecognitionSession begin() {
+        return new RecognitionSession(this, 0);
+    }
+
+    /**
+     * Starts the recognition of a gesture whose points are received while it is drawn. The polyline approximating the
+     * gesture is periodically updated while the points are received, reducing again only the points after the vertexes
+     * already found.
+     * 
+     * @param refreshInterval
+     *            The number of points after which the polyline is updated, or 0 for updating it only when needed
+     * @return The session receiving the points
+     */
+    public RecognitionSession begin(int refreshInterval) {
+        if (refreshInterval < 0) {
+            throw new IllegalArgumentException("Illegal refresh interval: " + refreshInterval);
+        }
+        return new RecognitionSession(this, refreshInterval);
+    }
+
+    /**
+     * @param gesture
+     *            The gesture
+     * @return The polyline approximating the gesture
+     */
+    static Polyline getPolyline(Gesture gesture) {
         final PolylineFinder pf = new DouglasPeuckerReducer(gesture, DPR_PARAMS);
-        // polyline del gesto da riconoscere
-        final Polyline u = pf.find();
+        return pf.find();
+    }
+
+    Result recognize(Polyline u) {
+        final Matches matches = match(u, 1, false, shortlistSize);
+        final Matches.Candidate best = matches == null ? null : matches.getBest();
+        if (best != null) {
+            final Double score = (2.0f - best.distance) / 2;
+
+            final Result res = new Result(best.template.getName(), score, best.distance);
+            res.setStatistics(matches.getMatched(), matches.getPruned());
+            return res;
+        }
+
+        if (VERBOSE) {
+            System.out.println(" null distance ");
+        }
+        return null;
+    }
+
+    /**
+     * Recognizes a partially drawn gesture, matching it against the prefixes of the templates. The prefixes are
+     * compiled the first time they are needed, and again only for the templates added afterwards.
+     * 
+     * @param gesture
+     *            The part of the gesture drawn so far
+     * @return The recognition result, or null if no template matches
+     * @see #setPrefixFractions(double...)
+     */
+    public PrefixResult recognizePrefix(Gesture gesture) {
+        return recognizePrefix(getPolyline(gesture), 0);
+    }
+
+    /**
+     * Recognizes a partially drawn gesture, if its class is unambiguous: the distance from the best prefix of the
+     * runner-up class must exceed the distance from the best prefix of the recognized class by the given margin.
+     * 
+     * @param gesture
+     *            The part of the gesture drawn so far
+     * @param margin
+     *            The minimum margin over the runner-up class
+     * @return The recognition result, or null if the class is still ambiguous
+     * @see #recognizePrefix(Gesture)
+     */
+    public PrefixResult recognizePrefix(Gesture gesture, double margin) {
+        if (!(margin >= 0)) {
+            throw new IllegalArgumentException("Illegal margin: " + margin);
+        }
+        return recognizePrefix(getPolyline(gesture), margin);
+    }
+
+    PrefixResult recognizePrefix(Polyline u, double margin) {
         if (u.getIndexes().isEmpty()) {
             return null;
         }
+        final PrefixIndex index = getPrefixIndex(templates.getGeneration());
+        final double pruning = GSS ? pruningFactor : 0;
+        final Query query = new Query(u, new CompiledPolyline(u), pruning > 0 ? new PolylineFeatures(u) : null, 2,
+                true, pruning, alignmentBand);
+        final Matches matches = scan(query, index.getTemplates(), 0);
+        final List<Matches.Candidate> classes = matches.getClasses();
+        if (classes.isEmpty()) {
+            return null;
+        }
+        final Matches.Candidate best = classes.get(0);
+        final double bestMargin = classes.size() > 1 ? classes.get(1).distance - best.distance
+                : Double.POSITIVE_INFINITY;
+        if (margin > 0 && !(bestMargin > margin)) {
+            return null;
+        }
+        final PrefixResult res = new PrefixResult(best.template.getName(), (2.0f - best.distance) / 2, best.distance,
+                index.getFraction(best.order), bestMargin);
+        res.setStatistics(matches.getMatched(), matches.getPruned());
+        return res;
+    }
+
+    /**
+     * Sets the fractions of the length of the templates at which their prefixes are cut, for the recognition of
+     * partially drawn gestures. More fractions give a finer estimate of the progress of the gesture, at the cost of
+     * matching more prefixes.
+     * 
+     * @param fractions
+     *            The fractions, in (0,1]
+     * @see #recognizePrefix(Gesture)
+     */
+    public void setPrefixFractions(double... fractions) {
+        if (fractions.length == 0) {
+            throw new IllegalArgumentException("No prefix fractions.");
+        }
+        final double[] sorted = Arrays.copyOf(fractions, fractions.length);
+        Arrays.sort(sorted);
+        for (double f : sorted) {
+            if (!(f > 0 && f <= 1)) {
+                throw new IllegalArgumentException("Illegal prefix fraction: " + f);
+            }
+        }
+        this.prefixFractions = sorted;
+    }
 
-        Double a = Double.POSITIVE_INFINITY;
-        String templateName = null;
-        Polyline t = null;
+    /**
+     * @return The fractions of the length of the templates at which their prefixes are cut
+     */
+    public double[] getPrefixFractions() {
+        return Arrays.copyOf(prefixFractions, prefixFractions.length);
+    }
 
-        for (Map.Entry<String, ArrayList<Polyline>> e : templates.entrySet()) {
-            final ArrayList<Polyline> tempTemplates = e.getValue();
-            for (int i = 0; i < tempTemplates.size(); i++) {
-                t = tempTemplates.get(i);
+    /**
+     * Recognizes a gesture, keeping the n best classes and the n best templates.
+     * 
+     * @param gesture
+     *            The gesture
+     * @param n
+     *            The number of classes and of templates to keep
+     * @return The recognition result
+     */
+    public NBestResult recognize(Gesture gesture, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Illegal number of results: " + n);
+        }
+        final Matches matches = match(gesture, n, true);
+        final List<Result> classes = new ArrayList<Result>();
+        final List<TemplateResult> templateResults = new ArrayList<TemplateResult>();
+        if (matches != null) {
+            for (Matches.Candidate c : matches.getClasses()) {
+                classes.add(new Result(c.template.getName(), (2.0f - c.distance) / 2, c.distance));
+            }
+            for (Matches.Candidate c : matches.getTemplates()) {
+                templateResults.add(new TemplateResult(c.template.getName(), (2.0f - c.distance) / 2, c.distance,
+                        c.template.getGesture()));
+            }
+        }
+        return matches == null ? new NBestResult(classes, templateResults, 0, 0)
+                : new NBestResult(classes, templateResults, matches.getMatched(), matches.getPruned());
+    }
 
-                if (t.getGesture().getPointers() == gesture.getPointers()) {
-                    final PolylineAligner aligner = new PolylineAligner(u, t);
-                    final AbstractMap.SimpleEntry<Polyline, Polyline> polyPair = aligner.align();
+    /**
+     * Enables the pruning of the templates which cannot beat the best ones found so far. Before matching a template,
+     * a lower bound of its distance from the gesture is computed from precomputed features. The template is skipped
+     * if the lower bound, multiplied by the given factor, is not smaller than the distance to beat.
+     * 
+     * @param factor
+     *            1 for pruning only templates which provably cannot be in the result, a greater value for a more
+     *            aggressive (approximate) pruning, 0 for disabling pruning
+     */
+    public void setPruning(double factor) {
+        if (factor < 0) {
+            throw new IllegalArgumentException("Illegal pruning factor: " + factor);
+        }
+        this.pruningFactor = factor;
+    }
 
-                    final int addedAngles = aligner.getAddedAngles();
-                    final double penalty = 1 + (double) addedAngles / (double) (addedAngles + aligner.getMatches());
-                    // da riconoscere
-                    final Polyline unknown = polyPair.getKey();
-                    // confrontato con
-                    final Polyline template = polyPair.getValue();
+    /**
+     * Enables the banded alignment of the polylines: only the cells of the alignment matrix within the given distance
+     * from its diagonal are computed. The band is widened as long as the best alignment touches its edges. This speeds
+     * up the recognition of complex gestures, approximated by polylines with many vertexes.
+     * 
+     * @param band
+     *            The initial half width of the band, or 0 for computing the whole matrix
+     */
+    public void setAlignmentBand(int band) {
+        if (band < 0) {
+            throw new IllegalArgumentException("Illegal alignment band: " + band);
+        }
+        this.alignmentBand = band;
+    }
 
-                    final List<Vector> vectorsU = unknown.getVectors();
-                    if (VERBOSE) {
-                        System.out.println(vectorsU);
+    /**
+     * Enables the shortlisting of the templates: only the templates whose cheap features are the most similar to the
+     * ones of the gesture are matched against it. This trades accuracy for speed on large sets of templates.
+     * 
+     * @param size
+     *            The number of templates to match, or 0 for matching all of them
+     * @see #evaluateShortlist(Map, int...)
+     */
+    public void setShortlist(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Illegal shortlist size: " + size);
+        }
+        this.shortlistSize = size;
+    }
+
+    /**
+     * Measures the accuracy and the speed of recognition with different shortlist sizes, using a set of labelled
+     * gestures. The first report refers to the recognition without shortlisting.
+     * 
+     * @param samples
+     *            The gestures, grouped by the name of their class
+     * @param sizes
+     *            The shortlist sizes to evaluate
+     * @return A report for each size
+     */
+    public List<ShortlistReport> evaluateShortlist(Map<String, List<Gesture>> samples, int... sizes) {
+        final int[] all = new int[sizes.length + 1];
+        System.arraycopy(sizes, 0, all, 1, sizes.length);
+        final List<String> reference = new ArrayList<String>();
+        final List<ShortlistReport> reports = new ArrayList<ShortlistReport>();
+        for (int size : all) {
+            int gestures = 0;
+            int correct = 0;
+            int agreeing = 0;
+            long nanos = 0;
+            for (Map.Entry<String, List<Gesture>> e : samples.entrySet()) {
+                for (Gesture g : e.getValue()) {
+                    final long start = System.nanoTime();
+                    final Matches matches = match(g, 1, false, size);
+                    nanos += System.nanoTime() - start;
+                    final Matches.Candidate best = matches == null ? null : matches.getBest();
+                    final String name = best == null ? null : best.template.getName();
+                    if (size == 0) {
+                        reference.add(name);
                     }
-                    final List<Vector> vectorsT = template.getVectors();
-                    if (VERBOSE) {
-                        System.out.println(vectorsT);
+                    if (e.getKey().equals(name)) {
+                        correct++;
                     }
-                    Double bestDist = null;
-                    if (!GSS) {
-                        final double uAngle = unknown.getGesture().getIndicativeAngle(!unknown.getGesture().isRotInv());
-                        if (VERBOSE) {
-                            System.out.println("Indicative angle = " + uAngle);
-                        }
-                        final double tAngle = template.getGesture()
-                                .getIndicativeAngle(!template.getGesture().isRotInv());
-                        if (VERBOSE) {
-                            System.out.println("Indicative angleT = " + tAngle);
-                        }
-                        bestDist = getDistanceAtAngle(vectorsU, vectorsT, -uAngle, -tAngle);
-                        if (VERBOSE) {
-                            System.out.println("Distance at = " + (-uAngle) + "; dist = " + bestDist);
-                        }
-                    } else {
-                        bestDist = getDistanceAtBestAngle(unknown, template, template.getGesture().isRotInv());
+                    if (name == null ? reference.get(gestures) == null : name.equals(reference.get(gestures))) {
+                        agreeing++;
                     }
-                    final Double distance = penalty * bestDist;
+                    gestures++;
+                }
+            }
+            reports.add(new ShortlistReport(size, gestures, correct, agreeing, nanos));
+        }
+        return reports;
+    }
 
-                    if (distance < a) {
-                        a = distance;
-                        templateName = e.getKey();
-                    }
+    private Matches match(Gesture gesture, int n, boolean keepClasses) {
+        return match(gesture, n, keepClasses, shortlistSize);
+    }
+
+    private Matches match(Gesture gesture, int n, boolean keepClasses, int shortlist) {
+        // polyline del gesto da riconoscere
+        return match(getPolyline(gesture), n, keepClasses, shortlist);
+    }
+
+    private Matches match(Polyline u, int n, boolean keepClasses, int shortlist) {
+        // the generation is never modified, and all of the objects below are confined to the calling thread
+        final TemplateStore.Generation snapshot = templates.getGeneration();
+        if (u.getIndexes().isEmpty()) {
+            return null;
+        }
+        final double pruning = GSS ? pruningFactor : 0;
+        final boolean shortlisting = shortlist > 0 && shortlist < snapshot.size();
+        final Query query = new Query(u, new CompiledPolyline(u),
+                pruning > 0 || shortlisting ? new PolylineFeatures(u) : null, n, keepClasses, pruning, alignmentBand);
+        final Matches matches = shortlisting
+                ? scan(query, getCandidateIndex(snapshot).shortlist(query.features, u.getGesture().getPointers(),
+                        shortlist), 0)
+                : scan(query, snapshot.getTemplates(), 0);
+        final MappedTemplateLibrary lib = library;
+        if (lib != null) {
+            // the templates of the library follow the ones of the recognizer
+            matches.merge(scan(query, null, lib, snapshot.size()));
+        }
+        return matches;
+    }
+
+    /**
+     * Sets a library of templates, matched in addition to the templates of the recognizer. The templates of the
+     * library are not affected by the methods managing the templates of the recognizer, nor shortlisted, nor used for
+     * the recognition of partially drawn gestures.
+     * 
+     * @param library
+     *            The library, or null for removing it
+     */
+    public void setLibrary(MappedTemplateLibrary library) {
+        this.library = library;
+    }
+
+    /**
+     * @return The library of templates matched in addition to the templates of the recognizer, or null
+     */
+    public MappedTemplateLibrary getLibrary() {
+        return library;
+    }
+
+    private CandidateIndex getCandidateIndex(TemplateStore.Generation generation) {
+        CandidateIndex index = candidateIndex;
+        if (index == null || index.getGeneration() != generation) {
+            // built once per generation: concurrent recognitions may just build it twice
+            index = new CandidateIndex(generation);
+            candidateIndex = index;
+        }
+        return index;
+    }
+
+    PrefixIndex getPrefixIndex(TemplateStore.Generation generation) {
+        final PrefixIndex prev = prefixIndex;
+        final double[] fractions = prefixFractions;
+        if (prev != null && prev.getGeneration() == generation && prev.getFractions() == fractions) {
+            return prev;
+        }
+        // the prefixes of the templates of the previous generation are reused
+        final PrefixIndex index = new PrefixIndex(generation, fractions, prev);
+        prefixIndex = index;
+        return index;
+    }
+
+    private Matches scan(Query query, List<Template> candidates, int base) {
+        return scan(query, candidates, null, base);
+    }
+
+    // scans the candidates or, if not null, the library
+    private Matches scan(final Query query, final List<Template> candidates, final MappedTemplateLibrary lib,
+            final int base) {
+        final ExecutorService executor = scanExecutor;
+        final int size = lib != null ? lib.size() : candidates.size();
+        final int chunks = executor == null ? 1 : Math.min(scanParallelism, size / MIN_TEMPLATES_PER_CHUNK);
+        if (chunks <= 1) {
+            return scan(query, candidates, lib, base, 0, size);
+        }
+        final Matches[] matches = new Matches[chunks];
+        ParallelLoop.run(executor, chunks, chunks, new ParallelLoop.Body() {
+            @Override
+            public void run(int c) {
+                matches[c] = scan(query, candidates, lib, base, size * c / chunks, size * (c + 1) / chunks);
+            }
+        });
+        for (int c = 1; c < chunks; c++) {
+            matches[0].merge(matches[c]);
+        }
+        return matches[0];
+    }
+
+    private Matches scan(Query query, List<Template> candidates, MappedTemplateLibrary lib, int base, int from,
+            int to) {
+        if (lib != null) {
+            return scan(query, lib, base, from, to);
+        }
+        final Matches matches = new Matches(query.n, query.keepClasses);
+        final Polyline u = query.polyline;
+        final int pointers = u.getGesture().getPointers();
+        for (int i = from; i < to; i++) {
+            final Template t = candidates.get(i);
+            if (t.getGesture().getPointers() == pointers) {
+                if (query.pruning > 0 && query.pruning * getLowerBound(query.features, t.getFeatures(),
+                        t.getGesture().isRotInv()) >= matches.getThreshold(t.getName())) {
+                    matches.prune();
+                    continue;
                 }
+                matches.offer(t, base + i,
+                        getDistance(u, query.compiled, t.getPolyline(), t.getCompiled(), query.band));
             }
         }
+        return matches.finish();
+    }
 
-        if (templateName != null) {
-            final Double score = (2.0f - a) / 2;
+    // the templates of the library are read in place, and decoded only if they are kept among the best matches
+    private Matches scan(Query query, MappedTemplateLibrary lib, int base, int from, int to) {
+        final Matches matches = new Matches(query.n, query.keepClasses);
+        final Polyline u = query.polyline;
+        final int pointers = u.getGesture().getPointers();
+        final MappedTemplateLibrary.Cursor t = lib.cursor();
+        for (int i = from; i < to; i++) {
+            if (lib.getPointers(i) == pointers) {
+                final String name = lib.getName(i);
+                t.moveTo(i);
+                if (query.pruning > 0
+                        && query.pruning * getLowerBound(query.features, t) >= matches.getThreshold(name)) {
+                    matches.prune();
+                    continue;
+                }
+                final double distance = GSS ? getDistance(u, query.compiled, t, query.band)
+                        : getDistance(u, query.compiled, lib.getTemplate(i).getPolyline(), null, query.band);
+                if (distance < matches.getThreshold(name)) {
+                    matches.offer(lib.getTemplate(i), base + i, distance);
+                } else {
+                    matches.reject();
+                }
+            }
+        }
+        return matches.finish();
+    }
 
-            return new Result(templateName, score);
+    /**
+     * Lower bound of the distance computed by {@link #getDistanceAtBestAngle(Polyline, Polyline, boolean)}, whatever
+     * the alignment. The vectors of the segments of an aligned polyline sum up to the vector connecting its endpoints
+     * (the last one), so, by the triangle inequality, the distance is not smaller than the difference between the
+     * endpoint vectors, at the best angle tested by the Golden Section Search. Their intensities depend on the length
+     * of the aligned polylines, which is only known to be within the length of the polyline and that of the gesture.
+     * 
+     * @param u
+     *            Features of the unknown gesture
+     * @param t
+     *            Features of the template
+     * @param rInvariant
+     *            Whether to use rotation invariant mode
+     * @return The lower bound
+     */
+    private double getLowerBound(PolylineFeatures u, PolylineFeatures t, boolean rInvariant) {
+        return getLowerBound(u, t.invisibleSlope + t.getInitialRotation(rInvariant), t.minInvisibleIntensity,
+                t.maxInvisibleIntensity, rInvariant);
+    }
+
+    // same features of PolylineFeatures, read in place
+    private double getLowerBound(PolylineFeatures u, MappedTemplateLibrary.Cursor t) {
+        final boolean rInvariant = t.isRotInv();
+        final double endpoints = t.getEndpointsDistance();
+        return getLowerBound(u, t.getInvisibleLineSlope() + (rInvariant ? -t.getIndicativeAngle() : 0),
+                endpoints / (t.getLength(t.getNumPoints() - 1) + endpoints),
+                endpoints / (t.getPolylineLength() + endpoints), rInvariant);
+    }
+
+    // t is the direction of the endpoint vector of the template, s1 and s2 the bounds of its intensity
+    private double getLowerBound(PolylineFeatures u, double t, double s1, double s2, boolean rInvariant) {
+        final double range = Math.toRadians(rInvariant ? this.angleRotInv : this.angleRotSen);
+        double delta = (u.invisibleSlope + u.getInitialRotation(rInvariant)) - t;
+        delta = Math.abs(delta - 2 * Math.PI * Math.floor((delta + Math.PI) / (2 * Math.PI)));
+        final double cos = Math.cos(Math.max(0, delta - range));
+        // minimum of r^2 + s^2 - 2rs cos over the box of the intensities: it lies on the boundary, being convex
+        final double r1 = u.minInvisibleIntensity;
+        final double r2 = u.maxInvisibleIntensity;
+        double min = squaredDistance(r1, clamp(r1 * cos, s1, s2), cos);
+        min = Math.min(min, squaredDistance(r2, clamp(r2 * cos, s1, s2), cos));
+        min = Math.min(min, squaredDistance(clamp(s1 * cos, r1, r2), s1, cos));
+        min = Math.min(min, squaredDistance(clamp(s2 * cos, r1, r2), s2, cos));
+        // safety margin against rounding errors
+        return Math.sqrt(Math.max(0, min)) - LOWER_BOUND_TOLERANCE;
+    }
+
+    private static double squaredDistance(double r, double s, double cos) {
+        return r * r + s * s - 2 * r * s * cos;
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    // same computations of getDistance on the decoded template
+    private double getDistance(Polyline u, CompiledPolyline cu, MappedTemplateLibrary.Cursor t, int band) {
+        final Workspace ws = workspace.get();
+        final AlignedVertexes alignment = ws.alignment;
+        PolylineAligner.align(u, cu, t, alignment, band);
+        final int addedAngles = alignment.addedAngles;
+        final double penalty = 1 + (double) addedAngles / (double) (addedAngles + alignment.matches);
+        final boolean rInvariant = t.isRotInv();
+        ws.loadVectors(u.getGesture(), alignment.thisVertexes, alignment.thisCount,
+                alignment.thisCount == u.getNumVertexes() ? cu : null, t, alignment.otherVertexes,
+                alignment.otherCount, -(rInvariant ? t.getIndicativeAngle() : 0));
+        return penalty * getDistanceAtBestAngle(ws, getIndicativeAngle(u, cu, rInvariant), rInvariant);
+    }
+
+    // TODO CHECKSTYLE:OFF
+    private Double getDistance(Polyline u, CompiledPolyline cu, Polyline t, CompiledPolyline ct, int band) {
+        if (GSS) {
+            final Workspace ws = workspace.get();
+            final AlignedVertexes alignment = ws.alignment;
+            PolylineAligner.align(u, cu, t, ct, alignment, band);
+            final int addedAngles = alignment.addedAngles;
+            final double penalty = 1 + (double) addedAngles / (double) (addedAngles + alignment.matches);
+            final boolean rInvariant = t.getGesture().isRotInv();
+            // the compiled vectors are still valid if the alignment did not add vertexes
+            ws.loadVectors(u.getGesture(), alignment.thisVertexes, alignment.thisCount,
+                    alignment.thisCount == u.getNumVertexes() ? cu : null, t.getGesture(), alignment.otherVertexes,
+                    alignment.otherCount, alignment.otherCount == t.getNumVertexes() ? ct : null,
+                    -getIndicativeAngle(t, ct, rInvariant));
+            return penalty * getDistanceAtBestAngle(ws, getIndicativeAngle(u, cu, rInvariant), rInvariant);
         }
+        final PolylineAligner aligner = new PolylineAligner(u, t);
+        final AbstractMap.SimpleEntry<Polyline, Polyline> polyPair = aligner.align();
 
-        if (VERBOSE) {
-            System.out.println(" null distance ");
+        final int addedAngles = aligner.getAddedAngles();
+        final double penalty = 1 + (double) addedAngles / (double) (addedAngles + aligner.getMatches());
+        // da riconoscere
+        final Polyline unknown = polyPair.getKey();
+        // confrontato con
+        final Polyline template = polyPair.getValue();
+
+        Double bestDist = null;
+        if (!GSS) {
+            final List<Vector> vectorsU = unknown.getVectors();
+            if (VERBOSE) {
+                System.out.println(vectorsU);
+            }
+            final List<Vector> vectorsT = template.getVectors();
+            if (VERBOSE) {
+                System.out.println(vectorsT);
+            }
+            final double uAngle = unknown.getGesture().getIndicativeAngle(!unknown.getGesture().isRotInv());
+            if (VERBOSE) {
+                System.out.println("Indicative angle = " + uAngle);
+            }
+            final double tAngle = template.getGesture().getIndicativeAngle(!template.getGesture().isRotInv());
+            if (VERBOSE) {
+                System.out.println("Indicative angleT = " + tAngle);
+            }
+            bestDist = getDistanceAtAngle(vectorsU, vectorsT, -uAngle, -tAngle);
+            if (VERBOSE) {
+                System.out.println("Distance at = " + (-uAngle) + "; dist = " + bestDist);
+            }
+        } else {
+            bestDist = getDistanceAtBestAngle(unknown, template, template.getGesture().isRotInv());
         }
-        return null;
+        return penalty * bestDist;
     }
     // CHECKSTYLE:ON
 
+    /**
+     * A gesture to be matched against the templates, with the options of the matching.
+     */
+    private static final class Query {
+        private final Polyline polyline;
+        private final CompiledPolyline compiled;
+        private final PolylineFeatures features;
+        private final int n;
+        private final boolean keepClasses;
+        private final double pruning;
+        private final int band;
+
+        Query(Polyline polyline, CompiledPolyline compiled, PolylineFeatures features, int n, boolean keepClasses,
+                double pruning, int band) {
+            this.polyline = polyline;
+            this.compiled = compiled;
+            this.features = features;
+            this.n = n;
+            this.keepClasses = keepClasses;
+            this.pruning = pruning;
+            this.band = band;
+        }
+    }
+
+    /**
+     * Rotation of the first loaded polyline minimizing the sum of the squared differences between the vectors: it is
+     * the angle maximizing the sum of the dot products, which is a sinusoid of the rotation.
+     */
+    private static double getClosedFormRotation(Workspace ws) {
+        double dot = 0;
+        double cross = 0;
+        for (int i = 0; i < ws.vectors; i++) {
+            dot += ws.xU[i] * ws.xT[i] + ws.yU[i] * ws.yT[i];
+            cross += ws.xU[i] * ws.yT[i] - ws.yU[i] * ws.xT[i];
+        }
+        return Math.atan2(cross, dot);
+    }
+
+    private static double getDistanceAtAngle(Workspace ws, double theta) {
+        final double[] xU = ws.xU;
+        final double[] yU = ws.yU;
+        final double[] xT = ws.xT;
+        final double[] yT = ws.yT;
+        // the vectors of the first polyline are rotated through the angle-addition identities
+        final double cos = Math.cos(theta);
+        final double sin = Math.sin(theta);
+        double cost = 0;
+        for (int i = 0; i < ws.vectors; i++) {
+            // same as Vector.difference
+            final double x = xU[i] * cos - yU[i] * sin - xT[i];
+            final double y = xU[i] * sin + yU[i] * cos - yT[i];
+            cost += Math.sqrt(x * x + y * y) / 2;
+        }
+        return cost;
+    }
+
     private Double getDistanceAtAngle(List<Vector> v1, List<Vector> v2, double theta1, double theta2) {
         double cost = 0;
         if (VERBOSE) {
@@ -243,6 +814,24 @@ public class PolyRecognizerGSS extends Recognizer {
         return this.angleStep;
     }
 
+    /**
+     * @param search
+     *            Strategy for finding the best rotation of the polylines
+     */
+    public void setRotationSearch(RotationSearch search) {
+        if (search == null) {
+            throw new IllegalArgumentException("Illegal rotation search: null");
+        }
+        this.rotationSearch = search;
+    }
+
+    /**
+     * @return Strategy for finding the best rotation of the polylines
+     */
+    public RotationSearch getRotationSearch() {
+        return rotationSearch;
+    }
+
     /**
      * Load gestures in .pgs format. Any existing gestures will be removed.
      * 
@@ -256,7 +845,8 @@ public class PolyRecognizerGSS extends Recognizer {
     }
 
     /**
-     * Load template gestures in .pgs format.
+     * Load template gestures in .pgs format. Both the binary format and the former one, based on Java serialization,
+     * are accepted. Serialized files containing classes which are not part of the former format are refused.
      * 
      * @param is
      *            InputStream containing the .psg data.
@@ -265,10 +855,33 @@ public class PolyRecognizerGSS extends Recognizer {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    @SuppressWarnings("unchecked")
     public void loadTemplatesPGS(InputStream is, boolean removeExistent) throws IOException {
+        final PushbackInputStream pis = new PushbackInputStream(is, 2);
+        final int b0 = pis.read();
+        final int b1 = pis.read();
+        if (b1 != -1) {
+            pis.unread(b1);
+        }
+        if (b0 != -1) {
+            pis.unread(b0);
+        }
+        if (b0 == 0xAC && b1 == 0xED) {
+            loadTemplatesSerialized(pis, removeExistent);
+            return;
+        }
+        final ReadableByteChannel channel = Channels.newChannel(pis);
+        try {
+            templates.addAll(TemplateFormat.read(channel, this), removeExistent);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // former format: a serialized map from class names to lists of polylines
+    @SuppressWarnings("unchecked")
+    private void loadTemplatesSerialized(InputStream is, boolean removeExistent) throws IOException {
         final Map<String, ArrayList<Polyline>> mapFromFile;
-        final ObjectInputStream objectinputstream = new ObjectInputStream(is);
+        final ObjectInputStream objectinputstream = new SerializedTemplatesInputStream(is);
         try {
             mapFromFile = (Map<String, ArrayList<Polyline>>) objectinputstream.readObject();
         } catch (ClassNotFoundException e1) {
@@ -276,22 +889,40 @@ public class PolyRecognizerGSS extends Recognizer {
             throw new RuntimeException(e1);
         }
         objectinputstream.close();
-        if (removeExistent) {
-            this.templates = mapFromFile;
-        } else {
-            for (Map.Entry<String, ArrayList<Polyline>> e : mapFromFile.entrySet()) {
-                final ArrayList<Polyline> cur = templates.get(e.getKey());
-                if (cur == null) {
-                    templates.put(e.getKey(), e.getValue());
-                } else {
-                    cur.addAll(e.getValue());
-                }
+        final ArrayList<Template> loaded = new ArrayList<Template>();
+        for (Map.Entry<String, ArrayList<Polyline>> e : mapFromFile.entrySet()) {
+            for (Polyline p : e.getValue()) {
+                loaded.add(new Template(e.getKey(), p));
             }
         }
+        templates.addAll(loaded, removeExistent);
     }
 
     /**
-     * Save the template gestures in .psg format.
+     * Stream of templates in the former format, refusing any class which is not part of it, so that loading an
+     * untrusted file cannot instantiate arbitrary classes.
+     */
+    private static final class SerializedTemplatesInputStream extends ObjectInputStream {
+        private static final Set<String> ALLOWED = new HashSet<String>(Arrays.asList(TreeMap.class.getName(),
+                ArrayList.class.getName(), Number.class.getName(), Integer.class.getName(), Double.class.getName(),
+                Point2D.Double.class.getName(), Rectangle2D.Double.class.getName(), Polyline.class.getName(),
+                Gesture.class.getName(), TPoint.class.getName(), GestureInfo.class.getName()));
+
+        SerializedTemplatesInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!ALLOWED.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class not allowed in templates.");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    /**
+     * Save the template gestures in .psg format, using the binary format.
      * 
      * @param os
      *            Destination stream.
@@ -299,9 +930,30 @@ public class PolyRecognizerGSS extends Recognizer {
      *             if an I/O error occurs.
      */
     public void saveTemplatesPGS(OutputStream os) throws IOException {
-        final ObjectOutputStream oos = new ObjectOutputStream(os);
-        oos.writeObject(templates);
-        oos.close();
+        saveTemplatesPGS(os, false);
+    }
+
+    /**
+     * Save the template gestures in .psg format, using the binary format. The polylines approximating the gestures are
+     * always stored, and they are used when loading the templates, unless they were computed with different
+     * parameters. The compiled vectors of the polylines can be stored as well, for loading the templates faster, at
+     * the cost of a larger file.
+     * 
+     * @param os
+     *            Destination stream.
+     * @param vectors
+     *            Whether to store the compiled vectors
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void saveTemplatesPGS(OutputStream os, boolean vectors) throws IOException {
+        final WritableByteChannel channel = Channels.newChannel(os);
+        try {
+            TemplateFormat.write(templates.getGeneration().getClasses(), getCompilationChecksum(), vectors,
+                    channel);
+        } finally {
+            channel.close();
+        }
     }
 
     // TODO CHECKSTYLE:OFF
@@ -315,35 +967,60 @@ public class PolyRecognizerGSS extends Recognizer {
      * @return The distance at the best angle
      */
     public Double getDistanceAtBestAngle(Polyline u, Polyline t, boolean rInvariant) {
-        double angle = rInvariant ? this.angleRotInv : this.angleRotSen;
-        Double a = Math.toRadians(-angle);
-        Double b = Math.toRadians(angle);
-        final Double treshold = Math.toRadians(this.angleStep);
-
-        double uAngle = u.getGesture().getIndicativeAngle(!rInvariant);
-        // System.out.println("Indicative angle = "+uAngle);
-        double tAngle = t.getGesture().getIndicativeAngle(!rInvariant);
-        // System.out.println("Indicative angleT = "+tAngle);
+        final Workspace ws = workspace.get();
+        ws.loadVectors(u, null, t, null, -getIndicativeAngle(t, null, rInvariant));
+        return getDistanceAtBestAngle(ws, getIndicativeAngle(u, null, rInvariant), rInvariant);
+    }
 
+    private static double getIndicativeAngle(Polyline p, CompiledPolyline cp, boolean rInvariant) {
         // NON EFFETTUA L'ALLINEAMENTO INIZIALE
         if (!rInvariant) {
-            uAngle = 0;
-            tAngle = 0;
+            return 0;
         }
+        // the indicative angle only depends on the gesture, so it is valid for the aligned polylines as well
+        return cp != null ? cp.indicativeAngle : p.getGesture().getIndicativeAngle(false);
+    }
 
-        final List<Vector> vectorsU = u.getVectors();
-        // System.out.println(vectorsU);
-        final List<Vector> vectorsT = t.getVectors();
-        // System.out.println(vectorsT);
+    private double getDistanceAtBestAngle(Workspace ws, double uAngle, boolean rInvariant) {
+        final double angle = rInvariant ? this.angleRotInv : this.angleRotSen;
+        final double a = Math.toRadians(-angle);
+        final double b = Math.toRadians(angle);
+        final double treshold = Math.toRadians(this.angleStep);
+
+        final RotationSearch search = rotationSearch;
+        if (search == RotationSearch.GOLDEN_SECTION) {
+            return goldenSectionSearch(ws, uAngle, a, b, treshold);
+        }
+        // least squares rotation, brought back into the search interval
+        double best = getClosedFormRotation(ws) + uAngle;
+        best = clamp(best - 2 * Math.PI * Math.floor((best + Math.PI) / (2 * Math.PI)), a, b);
+        final double dist = getDistanceAtAngle(ws, -uAngle + best);
+        if (search == RotationSearch.CLOSED_FORM) {
+            return dist;
+        }
+        final double lower = Math.max(a, best - treshold);
+        final double upper = Math.min(b, best + treshold);
+        final double distLower = lower < best ? getDistanceAtAngle(ws, -uAngle + lower) : Double.POSITIVE_INFINITY;
+        final double distUpper = upper > best ? getDistanceAtAngle(ws, -uAngle + upper) : Double.POSITIVE_INFINITY;
+        if (dist <= distLower && dist <= distUpper) {
+            return dist;
+        }
+        // the minimum lies further, in the direction in which the distance decreases
+        final double refined = distLower < distUpper
+                ? goldenSectionSearch(ws, uAngle, Math.max(a, best - REFINEMENT_STEPS * treshold), best, treshold)
+                : goldenSectionSearch(ws, uAngle, best, Math.min(b, best + REFINEMENT_STEPS * treshold), treshold);
+        return Math.min(refined, Math.min(distLower, distUpper));
+    }
 
+    private Double goldenSectionSearch(Workspace ws, double uAngle, double a, double b, double treshold) {
         Double alpha = (phi * a) + (1.0f - phi) * b;
         Double beta = (1.0f - phi) * a + (phi * b);
-        Double pathA = getDistanceAtAngle(vectorsU, vectorsT, -uAngle + alpha, -tAngle);
+        Double pathA = getDistanceAtAngle(ws, -uAngle + alpha);
 
         if (VERBOSE) {
             System.out.println("Testing at = " + alpha + "; dist = " + pathA);
         }
-        Double pathB = getDistanceAtAngle(vectorsU, vectorsT, -uAngle + beta, -tAngle);
+        Double pathB = getDistanceAtAngle(ws, -uAngle + beta);
         if (VERBOSE) {
             System.out.println("Testing at = " + (-uAngle + beta) + "; dist = " + pathB);
         }
@@ -355,7 +1032,7 @@ public class PolyRecognizerGSS extends Recognizer {
                     beta = alpha;
                     pathB = pathA;
                     alpha = phi * a + (1.0f - phi) * b;
-                    pathA = getDistanceAtAngle(vectorsU, vectorsT, -uAngle + alpha, -tAngle);
+                    pathA = getDistanceAtAngle(ws, -uAngle + alpha);
                     if (VERBOSE) {
                         System.out.println("Testing at = " + (-uAngle + alpha) + "; dist = " + pathA);
                     }
@@ -364,7 +1041,7 @@ public class PolyRecognizerGSS extends Recognizer {
                     alpha = beta;
                     pathA = pathB;
                     beta = (1.0f - phi) * a + phi * b;
-                    pathB = getDistanceAtAngle(vectorsU, vectorsT, -uAngle + beta, -tAngle);
+                    pathB = getDistanceAtAngle(ws, -uAngle + beta);
                     if (VERBOSE) {
                         System.out.println("Testing at = " + (-uAngle + beta) + "; dist = " + pathB);
                     }
@@ -48,9 +48,9 @@ import java.util.ListIterator;
 public class Polyline implements Serializable {
     private static final long serialVersionUID = 3012679946809758003L;
 
-    private Gesture gesture;
-    private List<Integer> indexes;
-    private List<Double> lengths;
+    private final Gesture gesture;
+    private final List<Integer> indexes;
+    private final List<Double> lengths;
 
     /**
      * @param gesture
@@ -61,25 +61,26 @@ public class Polyline implements Serializable {
     public Polyline(Gesture gesture, List<Integer> indexes) {
         this.gesture = gesture;
         this.indexes = indexes;
-        calculateLengths();
+        this.lengths = calculateLengths();
     }
 
-    private void calculateLengths() {
+    private List<Double> calculateLengths() {
         Double length = 0.0d;
-        lengths = new ArrayList<Double>();
+        final List<Double> lengths = new ArrayList<Double>();
         lengths.add(length);
-        TPoint temTPoint = null;
+        int previous = -1;
         final ListIterator<Integer> iterator = indexes.listIterator();
 
         while (iterator.hasNext()) {
-            final TPoint point = gesture.points.get(iterator.next());
-            if (temTPoint != null) {
-                length += temTPoint.distance(point);
+            final int point = iterator.next();
+            if (previous != -1) {
+                length += gesture.distance(previous, point);
                 // TPoint.dist( temTPoint, point );
                 lengths.add(length);
             }
-            temTPoint = point;
+            previous = point;
         }
+        return lengths;
     }
 
     /**
@@ -88,7 +89,7 @@ public class Polyline implements Serializable {
     public List<TPoint> getPoints() {
         final List<TPoint> lp = new ArrayList<TPoint>();
         for (int i = 0; i < getNumVertexes(); i++) {
-            lp.add(gesture.points.get(indexes.get(i)));
+            lp.add(gesture.getPoint(indexes.get(i)));
         }
         return lp;
     }
@@ -108,7 +109,7 @@ public class Polyline implements Serializable {
      * @return The point
      */
     public TPoint getTPoint(int index) {
-        return gesture.points.get(getPoint(index));
+        return gesture.getPoint(getPoint(index));
     }
 
     /**
@@ -150,6 +151,22 @@ public class Polyline implements Serializable {
         return length / (lengths.get(getNumLines()) + gesture.getEndpointsDistance());
     }
 
+    /**
+     * @return The length of the polyline
+     */
+    double getLength() {
+        return lengths.get(getNumLines());
+    }
+
+    /**
+     * @param vertex
+     *            The index of a vertex
+     * @return The length of the polyline up to the vertex
+     */
+    double getLength(int vertex) {
+        return lengths.get(vertex);
+    }
+
     /**
      * @return The intensity of the vector associated to the segment connecting the two endpoints
      */
@@ -165,8 +182,12 @@ public class Polyline implements Serializable {
      * @return Slope of a segment with respect to horizontal axis
      */
     public static double getLineAngle(TPoint first, TPoint last) {
-        final double xDiff = last.x - first.x;
-        final double yDiff = first.y - last.y;
+        return getLineAngle(first.x, first.y, last.x, last.y);
+    }
+
+    static double getLineAngle(double firstX, double firstY, double lastX, double lastY) {
+        final double xDiff = lastX - firstX;
+        final double yDiff = firstY - lastY;
         final double angle = Math.atan2(yDiff, xDiff);
         return angle >= 0 ? angle : (2 * Math.PI + angle);
         // return Math.atan2(yDiff, xDiff);
@@ -177,9 +198,8 @@ public class Polyline implements Serializable {
      * @return The slope of the segment connecting the two endpoints
      */
     public Double getInvisibleLineSlope() {
-        final TPoint first = gesture.points.get(0);
-        final TPoint last = gesture.points.get(gesture.points.size() - 1);
-        return getLineAngle(first, last);
+        final int last = gesture.getNumPoints() - 1;
+        return getLineAngle(gesture.getX(0), gesture.getY(0), gesture.getX(last), gesture.getY(last));
     }
 
     /**
@@ -188,10 +208,10 @@ public class Polyline implements Serializable {
      * @return The slope of the n-th segment
      */
     public double getLineSlope(int lineNum) {
-        final TPoint first = getTPoint(lineNum);
-        final TPoint last = getTPoint(lineNum + 1);
+        final int first = getPoint(lineNum);
+        final int last = getPoint(lineNum + 1);
 
-        return getLineAngle(first, last);
+        return getLineAngle(gesture.getX(first), gesture.getY(first), gesture.getX(last), gesture.getY(last));
     }
 
     /**
@@ -206,12 +226,16 @@ public class Polyline implements Serializable {
      * @return The magnitude of the angle identified by three points
      */
     public static double angle(TPoint p0, TPoint p1, TPoint c, boolean deg) {
+        return angle(p0.x, p0.y, p1.x, p1.y, c.x, c.y, deg);
+    }
+
+    static double angle(double p0x, double p0y, double p1x, double p1y, double cx, double cy, boolean deg) {
         // p0->c (b)
-        final double p0c = Math.sqrt(Math.pow(c.x - p0.x, 2) + Math.pow(c.y - p0.y, 2));
+        final double p0c = Math.sqrt(Math.pow(cx - p0x, 2) + Math.pow(cy - p0y, 2));
         // p1->c (a)
-        final double p1c = Math.sqrt(Math.pow(c.x - p1.x, 2) + Math.pow(c.y - p1.y, 2));
+        final double p1c = Math.sqrt(Math.pow(cx - p1x, 2) + Math.pow(cy - p1y, 2));
         // p0->p1 (c)
-        final double p0p1 = Math.sqrt(Math.pow(p1.x - p0.x, 2) + Math.pow(p1.y - p0.y, 2));
+        final double p0p1 = Math.sqrt(Math.pow(p1x - p0x, 2) + Math.pow(p1y - p0y, 2));
         final double angle = Math.acos((p1c * p1c + p0c * p0c - p0p1 * p0p1) / (2 * p1c * p0c));
         if (deg) {
             return Math.toDegrees(angle);
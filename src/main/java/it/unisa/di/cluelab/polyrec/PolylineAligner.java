@@ -141,11 +141,159 @@ public class PolylineAligner {
         return new AbstractMap.SimpleEntry<Polyline, Polyline>(t, o);
     }
 
+    /**
+     * Aligns two polylines like {@link #align()}, without building the aligned polylines: their vertexes are written
+     * into the buffers of a holder, which can be reused across alignments.
+     * 
+     * @param pfThiss
+     *            The first polyline
+     * @param pfOther
+     *            The second polyline
+     * @param res
+     *            The holder receiving the alignment
+     */
+    public static void align(Polyline pfThiss, Polyline pfOther, AlignedVertexes res) {
+        align(pfThiss, null, pfOther, null, res, 0);
+    }
+
+    static void align(Polyline pfThiss, CompiledPolyline cThiss, Polyline pfOther, CompiledPolyline cOther,
+            AlignedVertexes res, int band) {
+        final FlatNeedlemanWunsch nw = res.nw;
+        nw.align(pfThiss, cThiss, pfOther, cOther, band);
+        res.matches = nw.matches + 2;
+        res.addedAngles = 0;
+        res.ensureCapacity(pfThiss.getNumVertexes() + pfOther.getNumVertexes());
+        final Gesture gThiss = pfThiss.getGesture();
+        final Gesture gOther = pfOther.getGesture();
+        final int[] addedThis = res.addedThis;
+        final int[] addedOther = res.addedOther;
+        int addedT = 0;
+        int addedO = 0;
+
+        int previousX = 0;
+        int previousY = 0;
+        for (int i = nw.first; i < nw.matchedA.length; i++) {
+            final int x = nw.matchedA[i];
+            final int y = nw.matchedB[i];
+
+            // INSERT in X
+            final int toInsertX = y - previousY - 1;
+            for (int j = 0; j < toInsertX; j++) {
+                final double dist = pfOther.getLengthProportion(previousY, y, previousY + j + 1);
+                final int from = pfThiss.getPoint(previousX);
+                addedThis[addedT++] = from + gThiss.pointOnCurve(from, pfThiss.getPoint(x), dist);
+            }
+
+            // INSERT in Y
+            final int toInsertY = x - previousX - 1;
+            for (int j = 0; j < toInsertY; j++) {
+                final double dist = pfThiss.getLengthProportion(previousX, x, previousX + j + 1);
+                final int from = pfOther.getPoint(previousY);
+                addedOther[addedO++] = from + gOther.pointOnCurve(from, pfOther.getPoint(y), dist);
+            }
+
+            previousX = x;
+            previousY = y;
+        }
+        res.addedAngles = addedT + addedO;
+        // the added vertexes are found in order: merging them with the vertexes of the polylines keeps them sorted
+        res.thisCount = merge(pfThiss, addedThis, addedT, res.thisVertexes);
+        res.otherCount = merge(pfOther, addedOther, addedO, res.otherVertexes);
+    }
+
+    /**
+     * Aligns a polyline to a template read in place from a library, as
+     * {@link #align(Polyline, CompiledPolyline, Polyline, CompiledPolyline, AlignedVertexes, int)} does with the
+     * decoded template.
+     * 
+     * @param pfThiss
+     *            The first polyline
+     * @param cThiss
+     *            The compiled form of the first polyline, or null if not available
+     * @param other
+     *            The template
+     * @param res
+     *            The buffers receiving the alignment
+     * @param band
+     *            The initial half width of the band of the alignment matrix, or 0 for the whole matrix
+     */
+    static void align(Polyline pfThiss, CompiledPolyline cThiss, MappedTemplateLibrary.Cursor other,
+            AlignedVertexes res, int band) {
+        final FlatNeedlemanWunsch nw = res.nw;
+        nw.align(pfThiss, cThiss, other, band);
+        res.matches = nw.matches + 2;
+        res.addedAngles = 0;
+        res.ensureCapacity(pfThiss.getNumVertexes() + other.getNumVertexes());
+        final Gesture gThiss = pfThiss.getGesture();
+        final int[] addedThis = res.addedThis;
+        final int[] addedOther = res.addedOther;
+        int addedT = 0;
+        int addedO = 0;
+
+        int previousX = 0;
+        int previousY = 0;
+        for (int i = nw.first; i < nw.matchedA.length; i++) {
+            final int x = nw.matchedA[i];
+            final int y = nw.matchedB[i];
+
+            // INSERT in X
+            final int toInsertX = y - previousY - 1;
+            for (int j = 0; j < toInsertX; j++) {
+                final double dist = other.getLengthProportion(previousY, y, previousY + j + 1);
+                final int from = pfThiss.getPoint(previousX);
+                addedThis[addedT++] = from + gThiss.pointOnCurve(from, pfThiss.getPoint(x), dist);
+            }
+
+            // INSERT in Y
+            final int toInsertY = x - previousX - 1;
+            for (int j = 0; j < toInsertY; j++) {
+                final double dist = pfThiss.getLengthProportion(previousX, x, previousX + j + 1);
+                final int from = other.getPoint(previousY);
+                addedOther[addedO++] = from + other.pointOnCurve(from, other.getPoint(y), dist);
+            }
+
+            previousX = x;
+            previousY = y;
+        }
+        res.addedAngles = addedT + addedO;
+        res.thisCount = merge(pfThiss, addedThis, addedT, res.thisVertexes);
+        res.otherCount = merge(other, addedOther, addedO, res.otherVertexes);
+    }
+
+    private static int merge(MappedTemplateLibrary.Cursor p, int[] added, int count, int[] dest) {
+        final int vertexes = p.getNumVertexes();
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < vertexes || j < count) {
+            if (j == count || i < vertexes && p.getPoint(i) <= added[j]) {
+                dest[k++] = p.getPoint(i++);
+            } else {
+                dest[k++] = added[j++];
+            }
+        }
+        return k;
+    }
+
+    private static int merge(Polyline p, int[] added, int count, int[] dest) {
+        final int vertexes = p.getNumVertexes();
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < vertexes || j < count) {
+            if (j == count || i < vertexes && p.getPoint(i) <= added[j]) {
+                dest[k++] = p.getPoint(i++);
+            } else {
+                dest[k++] = added[j++];
+            }
+        }
+        return k;
+    }
+
     private void insert(Gesture g, ArrayList<Integer> vertexesFrom, ArrayList<Integer> vertexesTo, int prev, int next,
             double dist) {
         // System.out.println("inserting between "+prev+" and "+next+" at "+dist);
-        final int toAdd = vertexesFrom.get(prev)
-                + g.partOf(vertexesFrom.get(prev), vertexesFrom.get(next)).pointOnCurve(dist);
+        final int toAdd = vertexesFrom.get(prev) + g.pointOnCurve(vertexesFrom.get(prev), vertexesFrom.get(next), dist);
         vertexesTo.add(toAdd);
     }
 
@@ -0,0 +1,117 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import it.unisa.di.cluelab.polyrec.geom.Rectangle2D;
+
+/**
+ * Cheap features of a polyline, computed once per template (and once per query), used for shortlisting the templates
+ * and for pruning the ones which cannot match a query.
+ */
+final class PolylineFeatures {
+    private static final int ANGLE_BUCKETS = 8;
+    private static final double ASPECT_RATIO_MARGIN = 0.05;
+    // CHECKSTYLE:OFF
+    /** Number of vertexes of the polyline. */
+    final int vertexes;
+    /** Bucket of the indicative angle, in eighths of a turn. */
+    final int angleBucket;
+    /** Logarithm of the aspect ratio of the bounding box. */
+    final double logAspectRatio;
+    /** Ratio of the distance between the endpoints to the length of the gesture. */
+    final double straightness;
+    /** Slope of the segment connecting the two endpoints. */
+    final double invisibleSlope;
+    /** Indicative angle used for the initial alignment of rotation invariant gestures. */
+    final double indicativeAngle;
+    /** Smallest intensity of the vector connecting the endpoints, reached if the polyline follows the gesture. */
+    final double minInvisibleIntensity;
+    /** Largest intensity of the vector connecting the endpoints, reached if no vertex is added to the polyline. */
+    final double maxInvisibleIntensity;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param polyline
+     *            The polyline
+     */
+    PolylineFeatures(Polyline polyline) {
+        final Gesture gesture = polyline.getGesture();
+        final double endpoints = gesture.getEndpointsDistance();
+        final double length = gesture.getLength();
+        final Rectangle2D.Double bbox = gesture.getBoundingBox();
+        // the margin makes the ratio of straight lines finite
+        final double margin = ASPECT_RATIO_MARGIN * gesture.getDiagonal();
+        this.vertexes = polyline.getNumVertexes();
+        this.invisibleSlope = polyline.getInvisibleLineSlope();
+        this.indicativeAngle = gesture.getIndicativeAngle(false);
+        this.angleBucket = (int) Math.floor(indicativeAngle / (2 * Math.PI / ANGLE_BUCKETS)) % ANGLE_BUCKETS;
+        this.logAspectRatio = margin > 0 ? Math.log((bbox.width + margin) / (bbox.height + margin)) : 0;
+        this.straightness = length > 0 ? endpoints / length : 1;
+        // vertexes added by the alignment lie on the gesture: the length of the aligned polyline ranges from the
+        // length of the polyline to the length of the gesture
+        this.minInvisibleIntensity = endpoints / (length + endpoints);
+        this.maxInvisibleIntensity = endpoints / (polyline.getLength() + endpoints);
+    }
+
+    /**
+     * @param rInvariant
+     *            Whether to use rotation invariant mode
+     * @return The rotation applied before the Golden Section Search
+     */
+    double getInitialRotation(boolean rInvariant) {
+        return rInvariant ? -indicativeAngle : 0;
+    }
+
+    /**
+     * Dissimilarity of the shapes of two polylines, according to the features only. Orientation dependent features
+     * are ignored for rotation invariant templates.
+     * 
+     * @param other
+     *            The features of the other polyline
+     * @param rInvariant
+     *            Whether to use rotation invariant mode
+     * @return The dissimilarity, 0 for polylines having the same features
+     */
+    double dissimilarity(PolylineFeatures other, boolean rInvariant) {
+        double res = Math.abs(Math.log((double) vertexes / other.vertexes))
+                + Math.abs(straightness - other.straightness);
+        if (!rInvariant) {
+            final int buckets = Math.abs(angleBucket - other.angleBucket);
+            res += (double) Math.min(buckets, ANGLE_BUCKETS - buckets) / (ANGLE_BUCKETS / 2)
+                    + Math.abs(logAspectRatio - other.logAspectRatio);
+        }
+        return res;
+    }
+
+}
@@ -34,7 +34,6 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package it.unisa.di.cluelab.polyrec;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.TreeSet;
 
 /**
@@ -89,7 +88,7 @@ public abstract class PolylineFinder {
         int seq = 0;
         for (Integer v : vertexes) {
             if (seq == n) {
-                return gesture.points.get(v);
+                return gesture.getPoint(v);
             }
             seq++;
         }
@@ -113,42 +112,137 @@ public abstract class PolylineFinder {
     }
 
     /**
-     * @return The index of the vertex with small curvature variation
+     * At each iteration, the point between the segments having the smallest direction change is removed. The vertexes
+     * are kept in a doubly linked list and their direction changes in a min-heap: after each removal, only the
+     * direction changes at the two neighbours of the removed vertex are updated.
      */
-    private int smallestAngle() {
-        if (vertexes.size() <= 2) {
-            return -1;
-        }
-
-        int min = 0;
-        double smallestMeasure = 360;
-
-        final Iterator<Integer> iter = vertexes.iterator();
-        int first = iter.next();
-        int median = iter.next();
-        while (iter.hasNext()) {
-            final int last = iter.next();
-            final double angle = Math.abs(180 - Polyline.angle(gesture.points.get(first), gesture.points.get(last),
-                    gesture.points.get(median), true));
-            if (angle < smallestMeasure) {
-                min = median;
-                smallestMeasure = angle;
+    public void fusion2() {
+        final int n = vertexes.size();
+        if (n <= 2) {
+            return;
+        }
+        final int[] points = new int[n];
+        final int[] prev = new int[n];
+        final int[] next = new int[n];
+        int k = 0;
+        for (Integer v : vertexes) {
+            points[k] = v;
+            prev[k] = k - 1;
+            next[k] = k + 1;
+            k++;
+        }
+        // the endpoints are never removed
+        final VertexHeap heap = new VertexHeap(n);
+        for (int i = 1; i < n - 1; i++) {
+            heap.add(i, directionChange(points[i - 1], points[i], points[i + 1]));
+        }
+        while (!heap.isEmpty() && !(heap.minKey() > slopeTreshold)) {
+            final int v = heap.removeMin();
+            vertexes.remove(points[v]);
+            final int p = prev[v];
+            final int q = next[v];
+            next[p] = q;
+            prev[q] = p;
+            if (prev[p] >= 0) {
+                heap.update(p, directionChange(points[prev[p]], points[p], points[q]));
+            }
+            if (next[q] < n) {
+                heap.update(q, directionChange(points[p], points[q], points[next[q]]));
             }
-            first = median;
-            median = last;
         }
-        return smallestMeasure > slopeTreshold ? -1 : min;
+    }
+
+    private double directionChange(int first, int median, int last) {
+        final double angle = Math.abs(180 - Polyline.angle(gesture.getX(first), gesture.getY(first),
+                gesture.getX(last), gesture.getY(last), gesture.getX(median), gesture.getY(median), true));
+        // undefined angles, e.g. between coincident points, are never the smallest
+        return Double.isNaN(angle) ? Double.POSITIVE_INFINITY : angle;
     }
 
     /**
-     * At each iteration, the point between the segments having the smallest direction change is removed.
+     * Indexed binary min-heap of vertexes, keyed on their direction change. Ties are broken by position, so that the
+     * first vertex along the polyline is removed first.
      */
-    public void fusion2() {
+    private static final class VertexHeap {
+        private final int[] heap;
+        private final int[] positions;
+        private final double[] keys;
+        private int size;
+
+        VertexHeap(int capacity) {
+            heap = new int[capacity];
+            positions = new int[capacity];
+            keys = new double[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
 
-        int smallest = smallestAngle();
-        while (smallest != -1) {
-            vertexes.remove(smallest);
-            smallest = smallestAngle();
+        double minKey() {
+            return keys[heap[0]];
+        }
+
+        void add(int v, double key) {
+            keys[v] = key;
+            heap[size] = v;
+            positions[v] = size;
+            size++;
+            up(size - 1);
+        }
+
+        int removeMin() {
+            final int min = heap[0];
+            size--;
+            if (size > 0) {
+                move(heap[size], 0);
+                down(0);
+            }
+            return min;
+        }
+
+        void update(int v, double key) {
+            keys[v] = key;
+            up(positions[v]);
+            down(positions[v]);
+        }
+
+        private boolean less(int a, int b) {
+            return keys[a] < keys[b] || keys[a] == keys[b] && a < b;
+        }
+
+        private void move(int v, int i) {
+            heap[i] = v;
+            positions[v] = i;
+        }
+
+        private void up(int i) {
+            final int v = heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (!less(v, heap[parent])) {
+                    break;
+                }
+                move(heap[parent], i);
+                i = parent;
+            }
+            move(v, i);
+        }
+
+        private void down(int i) {
+            final int v = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], v)) {
+                    break;
+                }
+                move(heap[child], i);
+                i = child;
+            }
+            move(v, i);
         }
     }
 }
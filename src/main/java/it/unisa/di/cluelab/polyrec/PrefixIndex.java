@@ -0,0 +1,140 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefixes of the templates of a generation, compiled as templates themselves. Each template is cut at several
+ * fractions of its length, so that a partially drawn gesture can be matched against the corresponding parts of the
+ * templates. The prefixes of a template are listed consecutively, in the order of the generation, so that the ones of
+ * the same class are consecutive too.
+ */
+final class PrefixIndex {
+    private final TemplateStore.Generation generation;
+    private final double[] fractions;
+    private final Map<Template, Template[]> prefixes = new IdentityHashMap<Template, Template[]>();
+    private final List<Template> templates = new ArrayList<Template>();
+    private final List<Double> templateFractions = new ArrayList<Double>();
+
+    /**
+     * @param generation
+     *            The indexed templates
+     * @param fractions
+     *            The fractions of the length of the templates at which they are cut, sorted
+     * @param previous
+     *            An index whose prefixes can be reused, or null
+     */
+    PrefixIndex(TemplateStore.Generation generation, double[] fractions, PrefixIndex previous) {
+        this.generation = generation;
+        this.fractions = fractions;
+        final boolean reuse = previous != null && Arrays.equals(previous.fractions, fractions);
+        for (Template t : generation.getTemplates()) {
+            Template[] ps = reuse ? previous.prefixes.get(t) : null;
+            if (ps == null) {
+                ps = new Template[fractions.length];
+                for (int f = 0; f < fractions.length; f++) {
+                    ps[f] = prefix(t, fractions[f]);
+                }
+            }
+            prefixes.put(t, ps);
+            for (int f = 0; f < ps.length; f++) {
+                if (ps[f] != null) {
+                    templates.add(ps[f]);
+                    templateFractions.add(fractions[f]);
+                }
+            }
+        }
+    }
+
+    private static Template prefix(Template template, double fraction) {
+        if (fraction >= 1) {
+            return template;
+        }
+        final Gesture gesture = template.getGesture();
+        final double length = gesture.getLength() * fraction;
+        final int end = gesture.pointOnCurve(fraction);
+        if (end == 0) {
+            return null;
+        }
+        final Gesture part = gesture.partOf(0, end);
+        // the last point is interpolated, so that the prefix has exactly the given length
+        final double before = gesture.getLength(end - 1);
+        final double segment = gesture.getLength(end) - before;
+        final double t = segment > 0 ? (length - before) / segment : 0;
+        part.addPoint(gesture.getX(end - 1) + t * (gesture.getX(end) - gesture.getX(end - 1)),
+                gesture.getY(end - 1) + t * (gesture.getY(end) - gesture.getY(end - 1)),
+                gesture.getTime(end - 1) + Math.round(t * (gesture.getTime(end) - gesture.getTime(end - 1))));
+        part.setRotInv(gesture.isRotInv());
+        part.setPointers(gesture.getPointers());
+        part.trimToSize();
+        final Polyline polyline = PolyRecognizerGSS.getPolyline(part);
+        return polyline.getIndexes().isEmpty() ? null : new Template(template.getName(), polyline);
+    }
+
+    /**
+     * @return The indexed generation
+     */
+    TemplateStore.Generation getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The fractions of the length of the templates at which they are cut
+     */
+    double[] getFractions() {
+        return fractions;
+    }
+
+    /**
+     * @return The prefixes of all of the templates
+     */
+    List<Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @param order
+     *            The position of a prefix in {@link #getTemplates()}
+     * @return The fraction of the length of its template
+     */
+    double getFraction(int order) {
+        return templateFractions.get(order);
+    }
+
+}
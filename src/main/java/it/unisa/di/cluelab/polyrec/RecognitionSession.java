@@ -0,0 +1,224 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+/**
+ * Recognition of a gesture whose points are received while it is drawn, started by
+ * {@link PolyRecognizerGSS#begin()}. The centroid, the bounding box and the cumulative lengths of the gesture are
+ * updated as each point is received, and the polyline approximating the gesture can be kept up to date during the
+ * stroke, so that only the matching against the templates is left when the stroke ends.
+ * <p>
+ * The polyline is updated incrementally: the vertexes found by the Douglas-Peucker reduction before the last one are
+ * kept, and only the points after them are reduced again, with the tolerance given by the current size of the
+ * gesture. Since the vertexes kept were found with the tolerance of a smaller gesture, the polyline of a session
+ * updated during the stroke may differ from the one found on the whole gesture, which is used if the polyline is only
+ * updated when needed.
+ * <p>
+ * A session is meant to be fed by a single thread.
+ */
+public class RecognitionSession {
+    private final PolyRecognizerGSS recognizer;
+    private final int refreshInterval;
+    private final Gesture gesture = new Gesture();
+    private final IncrementalReducer reducer = new IncrementalReducer(gesture, PolyRecognizerGSS.getDprParams());
+    // provisional polyline, valid if no point was received after it was found
+    private Polyline polyline;
+    private int refreshedAt = -1;
+    private boolean ended;
+
+    RecognitionSession(PolyRecognizerGSS recognizer, int refreshInterval) {
+        this.recognizer = recognizer;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return The gesture made of the points received so far. Its points must only be added through the session.
+     */
+    public Gesture getGesture() {
+        return gesture;
+    }
+
+    /**
+     * @param point
+     *            The point received
+     */
+    public void addPoint(TPoint point) {
+        addPoint(point.x, point.y, point.time);
+    }
+
+    /**
+     * @param x
+     *            The x coordinate of the point received
+     * @param y
+     *            The y coordinate of the point received
+     * @param time
+     *            The timestamp of the point received
+     */
+    public void addPoint(double x, double y, long time) {
+        if (ended) {
+            throw new IllegalStateException("Session ended.");
+        }
+        gesture.addPoint(x, y, time);
+        if (refreshInterval > 0 && gesture.getNumPoints() - refreshedAt >= refreshInterval) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        polyline = reducer.find();
+        refreshedAt = gesture.getNumPoints();
+    }
+
+    /**
+     * @return The polyline approximating the points received so far
+     */
+    public Polyline getPolyline() {
+        if (refreshedAt != gesture.getNumPoints()) {
+            refresh();
+        }
+        return polyline;
+    }
+
+    /**
+     * Recognizes the points received so far, without ending the session.
+     * 
+     * @return The provisional result, or null if no template matches
+     */
+    public Result recognize() {
+        return recognizer.recognize(getPolyline());
+    }
+
+    /**
+     * Recognizes the points received so far as a partially drawn gesture, if its class is unambiguous, without ending
+     * the session.
+     * 
+     * @param margin
+     *            The minimum margin over the runner-up class
+     * @return The result, or null if the class is still ambiguous
+     * @see PolyRecognizerGSS#recognizePrefix(Gesture, double)
+     */
+    public PrefixResult recognizePrefix(double margin) {
+        if (!(margin >= 0)) {
+            throw new IllegalArgumentException("Illegal margin: " + margin);
+        }
+        return recognizer.recognizePrefix(getPolyline(), margin);
+    }
+
+    /**
+     * Ends the session and recognizes the gesture.
+     * 
+     * @return The result, or null if no template matches
+     */
+    public Result end() {
+        if (ended) {
+            throw new IllegalStateException("Session ended.");
+        }
+        ended = true;
+        return recognize();
+    }
+
+    /**
+     * @return Whether the session has ended
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    int getComputedDistances() {
+        return reducer.computed;
+    }
+
+    /**
+     * Douglas-Peucker reduction of a growing gesture, followed by the fusion of the vertexes.
+     */
+    private static final class IncrementalReducer extends PolylineFinder {
+        private final double diagonalDivisor;
+        // vertexes no longer reduced again, up to the anchor
+        private final TreeSet<Integer> kept = new TreeSet<Integer>();
+        private int anchor;
+        private int computed;
+
+        IncrementalReducer(Gesture gesture, Double[] params) {
+            super(gesture, params);
+            this.slopeTreshold = params[0];
+            this.diagonalDivisor = params[1];
+        }
+
+        @Override
+        public Polyline find() {
+            final int n = gesture.getNumPoints();
+            final double tol = gesture.getDiagonal() / diagonalDivisor;
+            vertexes = new TreeSet<Integer>();
+            // as in the reduction of the whole gesture, shorter or degenerate gestures have no vertexes
+            if (tol > 0 && n >= 3) {
+                // the vertexes kept with the tolerance of a smaller gesture must still be outside the current one
+                Integer prev = null;
+                Integer cur = null;
+                for (Integer next : new ArrayList<Integer>(kept)) {
+                    if (cur != null && prev != null && !(DouglasPeuckerReducer.orthogonalDistance(gesture.getX(cur),
+                            gesture.getY(cur), gesture.getX(prev), gesture.getY(prev), gesture.getX(next),
+                            gesture.getY(next)) > tol)) {
+                        kept.remove(cur);
+                    } else {
+                        prev = cur;
+                    }
+                    cur = next;
+                }
+                final boolean[] marked = new boolean[n - anchor];
+                computed += DouglasPeuckerReducer.douglasPeuckerReduction(gesture, anchor, n - 1, marked, tol);
+                kept.add(anchor);
+                vertexes.addAll(kept);
+                vertexes.add(n - 1);
+                // the split points before the last one are kept: the last one moves with the end of the stroke
+                int last = -1;
+                for (int i = 1; i < marked.length - 1; i++) {
+                    if (marked[i]) {
+                        vertexes.add(anchor + i);
+                        if (last >= 0) {
+                            kept.add(last);
+                        }
+                        last = anchor + i;
+                    }
+                }
+                anchor = kept.last();
+            }
+            fusion2();
+            return getPoly();
+        }
+    }
+
+}
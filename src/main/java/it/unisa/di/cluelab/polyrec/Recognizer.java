@@ -33,32 +33,24 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package it.unisa.di.cluelab.polyrec;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Recognizer abstract class.
@@ -78,9 +70,96 @@ public abstract class Recognizer {
     private static final String ATTR_X = "x";
     private static final String ATTR_Y = "y";
     private static final String ATTR_T = "t";
+    private static final String ATTR_COMPILATION = "compilation";
+    private static final String ATTR_VERTEXES = "vertexes";
+    // templates read from an .xml file per thread compiling them, before they are compiled together
+    private static final int COMPILATION_BATCH_PER_THREAD = 16;
 
-    protected Map<String, ArrayList<Polyline>> templates;
+    /**
+     * The templates. Recognition works on the current generation without locking, while additions are published as
+     * new generations.
+     */
+    protected final TemplateStore templates = new TemplateStore();
     protected String method;
+    private volatile ExecutorService compileExecutor;
+    private volatile int compileParallelism;
+    private volatile ExecutorService batchExecutor;
+    private volatile int batchParallelism;
+
+    /**
+     * Builds a template from a gesture. This is the expensive part of the addition of a template, so it is performed
+     * before the template is published.
+     * 
+     * @param name
+     *            class name
+     * @param gesture
+     *            the gesture
+     * @return the template
+     * @throws IllegalArgumentException
+     *             if no template can be built from the gesture
+     */
+    protected abstract Template compileTemplate(String name, Gesture gesture);
+
+    /**
+     * Identifies the parameters used by {@link #compileTemplate(String, Gesture)}: templates compiled with the same
+     * checksum can be stored and loaded along with their polylines, without compiling them again.
+     * 
+     * @return The checksum, or 0 if compiled templates cannot be stored
+     */
+    protected long getCompilationChecksum() {
+        return 0;
+    }
+
+    /**
+     * Enables the parallel compilation of the templates added or loaded in bulk. The templates are still published
+     * all at once, in the same order as when they are compiled sequentially.
+     * 
+     * @param executor
+     *            The executor providing the additional threads, or null for disabling the parallel compilation
+     * @param parallelism
+     *            The maximum number of threads, including the calling one
+     */
+    public void setParallelCompilation(ExecutorService executor, int parallelism) {
+        if (executor != null && parallelism < 1) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+        }
+        this.compileExecutor = executor;
+        this.compileParallelism = parallelism;
+    }
+
+    /**
+     * Compiles several templates, in parallel if enabled.
+     * 
+     * @param names
+     *            The class names
+     * @param gestures
+     *            The gestures
+     * @param vertexes
+     *            The stored vertexes of the polylines approximating the gestures, null if they have to be computed, or
+     *            null for computing all of them
+     * @return The templates, in the order of the gestures
+     */
+    List<Template> compileTemplates(final List<String> names, final List<Gesture> gestures,
+            final List<String> vertexes) {
+        final Template[] res = new Template[gestures.size()];
+        final ParallelLoop.Body body = new ParallelLoop.Body() {
+            @Override
+            public void run(int index) {
+                final String v = vertexes == null ? null : vertexes.get(index);
+                res[index] = v == null ? compileTemplate(names.get(index), gestures.get(index))
+                        : restoreTemplate(names.get(index), gestures.get(index), v);
+            }
+        };
+        final ExecutorService executor = compileExecutor;
+        if (executor == null) {
+            for (int i = 0; i < res.length; i++) {
+                body.run(i);
+            }
+        } else {
+            ParallelLoop.run(executor, compileParallelism, res.length, body);
+        }
+        return Arrays.asList(res);
+    }
 
     /**
      * Adds a new template.
@@ -91,7 +170,9 @@ public abstract class Recognizer {
      *            the gesture
      * @return size of list of templates of the class
      */
-    public abstract int addTemplate(String name, Gesture gesture);
+    public int addTemplate(String name, Gesture gesture) {
+        return templates.add(compileTemplate(name, gesture)).getClasses().get(name).size();
+    }
 
     /**
      * @param gesture
@@ -100,6 +181,65 @@ public abstract class Recognizer {
      */
     public abstract Result recognize(Gesture gesture);
 
+    /**
+     * Enables the parallel recognition of the batches passed to {@link #recognizeAll(List)}.
+     * 
+     * @param executor
+     *            The executor providing the additional threads, or null for recognizing the batches in the calling
+     *            thread
+     * @param parallelism
+     *            The maximum number of threads, including the calling one
+     */
+    public void setParallelBatch(ExecutorService executor, int parallelism) {
+        if (executor != null && parallelism < 1) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+        }
+        this.batchExecutor = executor;
+        this.batchParallelism = parallelism;
+    }
+
+    /**
+     * Recognizes a batch of gestures, in parallel if enabled.
+     * 
+     * @param gestures
+     *            the gestures
+     * @return The recognition results, in the order of the gestures, and the throughput statistics
+     * @see #setParallelBatch(ExecutorService, int)
+     */
+    public BatchResult recognizeAll(List<Gesture> gestures) {
+        final ExecutorService executor = batchExecutor;
+        return recognizeAll(gestures, executor, executor == null ? 1 : batchParallelism);
+    }
+
+    /**
+     * Recognizes a batch of gestures in parallel. The calling thread takes part in the recognition. Each thread
+     * recognizes one gesture after the other, reusing its own scratch state.
+     * 
+     * @param gestures
+     *            the gestures
+     * @param executor
+     *            the executor providing the additional threads, or null for recognizing the batch in the calling
+     *            thread
+     * @param parallelism
+     *            the maximum number of threads, including the calling one
+     * @return The recognition results, in the order of the gestures, and the throughput statistics
+     */
+    public BatchResult recognizeAll(final List<Gesture> gestures, ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+        }
+        final Result[] results = new Result[gestures.size()];
+        final long start = System.nanoTime();
+        final int threads = ParallelLoop.run(executor, parallelism, results.length, new ParallelLoop.Body() {
+            @Override
+            public void run(int index) {
+                results[index] = recognize(gestures.get(index));
+            }
+        });
+        final long elapsed = System.nanoTime() - start;
+        return new BatchResult(Arrays.asList(results), threads, elapsed);
+    }
+
     /**
      * @param name
      *            class name
@@ -107,9 +247,26 @@ public abstract class Recognizer {
      *            list of template gestures
      */
     public void addTemplates(String name, List<Gesture> templates) {
-        for (Gesture g : templates) {
-            addTemplate(name, g);
+        this.templates.addAll(compileTemplates(Collections.nCopies(templates.size(), name), templates, null), false);
+    }
+
+    /**
+     * Adds several templates of several classes. The templates are compiled before being published all at once.
+     * 
+     * @param templates
+     *            The template gestures, grouped by class name
+     * @see #setParallelCompilation(ExecutorService, int)
+     */
+    public void addTemplates(Map<String, List<Gesture>> templates) {
+        final List<String> names = new ArrayList<String>();
+        final List<Gesture> gestures = new ArrayList<Gesture>();
+        for (Map.Entry<String, List<Gesture>> e : templates.entrySet()) {
+            for (Gesture g : e.getValue()) {
+                names.add(e.getKey());
+                gestures.add(g);
+            }
         }
+        this.templates.addAll(compileTemplates(names, gestures, null), false);
     }
 
     /**
@@ -117,10 +274,10 @@ public abstract class Recognizer {
      */
     public Map<String, List<Gesture>> getTemplates() {
         final LinkedHashMap<String, List<Gesture>> res = new LinkedHashMap<String, List<Gesture>>();
-        for (Map.Entry<String, ArrayList<Polyline>> e : templates.entrySet()) {
+        for (Map.Entry<String, List<Template>> e : templates.getGeneration().getClasses().entrySet()) {
             final ArrayList<Gesture> gests = new ArrayList<Gesture>();
-            for (Polyline p : e.getValue()) {
-                gests.add(p.getGesture());
+            for (Template t : e.getValue()) {
+                gests.add(t.getGesture());
             }
             res.put(e.getKey(), gests);
         }
@@ -145,7 +302,14 @@ public abstract class Recognizer {
      * @return The names of the classes
      */
     public Set<String> getClassNames() {
-        return templates.keySet();
+        return templates.getGeneration().getClassNames();
+    }
+
+    /**
+     * @return The version of the templates, increased whenever they are modified
+     */
+    public long getTemplatesVersion() {
+        return templates.getVersion();
     }
 
     /**
@@ -171,55 +335,83 @@ public abstract class Recognizer {
      *             if an I/O error occurs.
      */
     public void loadTemplatesXML(InputStream is, boolean removeExistent) throws Exception {
-        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder db = dbf.newDocumentBuilder();
-
-        final Document doc = db.parse(is);
-
-        final XPathFactory xPathfactory = XPathFactory.newInstance();
-        final XPath xpath = xPathfactory.newXPath();
-
-        final XPathExpression expr = xpath.compile("/set/class");
-        final NodeList classList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
-
-        final ArrayList<Gesture> gestures = new ArrayList<Gesture>();
-        for (int i = 0; i < classList.getLength(); i++) {
-            final Node classNode = classList.item(i);
-            final Node nName = classNode.getAttributes().getNamedItem(ATTR_CLASS_NAME);
-
-            if (nName != null) {
-                final String className = nName.getNodeValue();
-                final NodeList templateList = (NodeList) classNode.getChildNodes();
-
-                for (int j = 0; j < templateList.getLength(); j++) {
-                    final Node templateNode = templateList.item(j);
-                    final NodeList pointList = (NodeList) templateNode.getChildNodes();
-
-                    final Gesture gesture = new Gesture();
-                    gesture.setPointers(
-                            Integer.parseInt(templateNode.getAttributes().getNamedItem(ATTR_POINTERS).getNodeValue()));
-                    gesture.setRotInv(Boolean.valueOf(
-                            templateNode.getAttributes().getNamedItem(ATTR_ROTATION_INVARIANT).getNodeValue()));
-                    for (int p = 0; p < pointList.getLength(); p++) {
-                        final Node point = pointList.item(p);
-                        final TPoint tpoint = new TPoint(
-                                Double.parseDouble(point.getAttributes().getNamedItem(ATTR_X).getNodeValue()),
-                                Double.parseDouble(point.getAttributes().getNamedItem(ATTR_Y).getNodeValue()),
-                                Long.parseLong(point.getAttributes().getNamedItem(ATTR_T).getNodeValue()));
-                        gesture.addPoint(tpoint);
+        final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+        // each template is compiled as soon as it is read, or, if the compilation is parallel, as soon as a small
+        // batch of templates is read
+        final ExecutorService executor = compileExecutor;
+        final int batch = executor == null ? 1 : COMPILATION_BATCH_PER_THREAD * compileParallelism;
+        final List<Template> loaded = new ArrayList<Template>();
+        final List<String> names = new ArrayList<String>(batch);
+        final List<Gesture> gestures = new ArrayList<Gesture>(batch);
+        final List<String> polylines = new ArrayList<String>(batch);
+        try {
+            // the elements are told apart by their depth, as in /set/class/template/point
+            int depth = 0;
+            boolean root = false;
+            // whether the stored polylines were computed with the current parameters
+            boolean trusted = false;
+            String className = null;
+            Gesture gesture = null;
+            String vertexes = null;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 1) {
+                        root = ELEM_ROOT.equals(reader.getLocalName());
+                        final long checksum = getCompilationChecksum();
+                        trusted = root && checksum != 0
+                                && Long.toHexString(checksum).equals(reader.getAttributeValue(null, ATTR_COMPILATION));
+                    } else if (depth == 2) {
+                        className = root && ELEM_CLASS.equals(reader.getLocalName())
+                                ? reader.getAttributeValue(null, ATTR_CLASS_NAME) : null;
+                    } else if (depth == 3 && className != null) {
+                        gesture = new Gesture();
+                        gesture.setPointers(Integer.parseInt(reader.getAttributeValue(null, ATTR_POINTERS)));
+                        gesture.setRotInv(Boolean.valueOf(reader.getAttributeValue(null, ATTR_ROTATION_INVARIANT)));
                         gesture.setInfo(new GestureInfo(0, null, className, 0));
-
+                        vertexes = trusted ? reader.getAttributeValue(null, ATTR_VERTEXES) : null;
+                    } else if (depth == 4 && gesture != null) {
+                        gesture.addPoint(Double.parseDouble(reader.getAttributeValue(null, ATTR_X)),
+                                Double.parseDouble(reader.getAttributeValue(null, ATTR_Y)),
+                                Long.parseLong(reader.getAttributeValue(null, ATTR_T)));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 3 && gesture != null) {
+                        names.add(className);
+                        gestures.add(gesture);
+                        polylines.add(vertexes);
+                        gesture = null;
+                        if (gestures.size() == batch) {
+                            loaded.addAll(compileTemplates(names, gestures, polylines));
+                            names.clear();
+                            gestures.clear();
+                            polylines.clear();
+                        }
                     }
-                    gestures.add(gesture);
+                    depth--;
                 }
             }
+        } finally {
+            reader.close();
         }
-        if (removeExistent) {
-            clear();
-        }
-        for (Gesture g : gestures) {
-            addTemplate(g.getInfo().getName(), g);
+        loaded.addAll(compileTemplates(names, gestures, polylines));
+        // the new templates are published all at once, recognition keeps using the previous ones meanwhile
+        templates.addAll(loaded, removeExistent);
+    }
+
+    private static Template restoreTemplate(String name, Gesture gesture, String vertexes) {
+        final String[] tokens = vertexes.trim().split("\\s+");
+        final List<Integer> indexes = new ArrayList<Integer>(tokens.length);
+        for (String token : tokens) {
+            final int index = token.isEmpty() ? -1 : Integer.parseInt(token);
+            if (index < 0 || index >= gesture.getNumPoints()) {
+                throw new IllegalArgumentException("Illegal vertexes: " + vertexes);
+            }
+            indexes.add(index);
         }
+        gesture.trimToSize();
+        return new Template(name, gesture.getPoly(indexes));
     }
 
     /**
@@ -231,47 +423,92 @@ public abstract class Recognizer {
      *             if an I/O error occurs.
      */
     public void saveTemplatesXML(OutputStream os) throws IOException {
-        final DocumentBuilder docBuilder;
-        try {
-            docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException(e);
-        }
-
-        // root elements
-        final Document doc = docBuilder.newDocument();
-        final Element rootElement = doc.createElement(ELEM_ROOT);
-        doc.appendChild(rootElement);
-        for (Map.Entry<String, List<Gesture>> e : getTemplates().entrySet()) {
-            final Element classElement = doc.createElement(ELEM_CLASS);
-            classElement.setAttribute(ATTR_CLASS_NAME, e.getKey());
-            rootElement.appendChild(classElement);
+        saveTemplatesXML(os, false);
+    }
 
-            for (Gesture g : e.getValue()) {
-                final Element templateElement = doc.createElement(ELEM_TEMPLATE);
-                classElement.appendChild(templateElement);
-                templateElement.setAttribute(ATTR_POINTERS, Integer.toString(g.getPointers()));
-                templateElement.setAttribute(ATTR_ROTATION_INVARIANT, String.valueOf(g.isRotInv()));
-                final ArrayList<TPoint> points = g.getPoints();
-                for (int p = 0; p < points.size(); p++) {
-                    final Element pointElement = doc.createElement(ELEM_POINT);
-                    pointElement.setAttribute(ATTR_X, String.valueOf(points.get(p).getX()));
-                    pointElement.setAttribute(ATTR_Y, String.valueOf(points.get(p).getY()));
-                    pointElement.setAttribute(ATTR_T, String.valueOf(points.get(p).getTime()));
-                    templateElement.appendChild(pointElement);
+    /**
+     * Save the template gestures in .xml format, optionally along with the polylines approximating them, which are
+     * used when loading the templates, unless they were computed with different parameters.
+     * 
+     * @param os
+     *            Destination stream.
+     * @param polylines
+     *            Whether to store the polylines too
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void saveTemplatesXML(OutputStream os, boolean polylines) throws IOException {
+        // the templates are written as they are visited, with the same output as the former DOM serialization
+        final Writer w = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+        final Map<String, List<Template>> classes = templates.getGeneration().getClasses();
+        final long checksum = getCompilationChecksum();
+        final boolean compiled = polylines && checksum != 0;
+        w.write("<" + ELEM_ROOT);
+        if (compiled) {
+            w.write(" " + ATTR_COMPILATION + "=\"" + Long.toHexString(checksum) + "\"");
+        }
+        if (classes.isEmpty()) {
+            w.write("/>");
+            w.flush();
+            return;
+        }
+        w.write(">");
+        for (Map.Entry<String, List<Template>> e : classes.entrySet()) {
+            w.write("<" + ELEM_CLASS + " " + ATTR_CLASS_NAME + "=\"");
+            writeAttributeValue(w, e.getKey());
+            w.write("\">");
+            for (Template t : e.getValue()) {
+                final Gesture g = t.getGesture();
+                // attributes in alphabetical order
+                w.write("<" + ELEM_TEMPLATE + " " + ATTR_POINTERS + "=\"" + g.getPointers() + "\" "
+                        + ATTR_ROTATION_INVARIANT + "=\"" + g.isRotInv() + "\"");
+                if (compiled) {
+                    w.write(" " + ATTR_VERTEXES + "=\"");
+                    final List<Integer> indexes = t.getPolyline().getIndexes();
+                    for (int v = 0; v < indexes.size(); v++) {
+                        w.write((v == 0 ? "" : " ") + indexes.get(v));
+                    }
+                    w.write("\"");
                 }
+                if (g.getNumPoints() == 0) {
+                    w.write("/>");
+                    continue;
+                }
+                w.write(">");
+                for (int p = 0; p < g.getNumPoints(); p++) {
+                    w.write("<" + ELEM_POINT + " " + ATTR_T + "=\"" + g.getTime(p) + "\" " + ATTR_X + "=\""
+                            + g.getX(p) + "\" " + ATTR_Y + "=\"" + g.getY(p) + "\"/>");
+                }
+                w.write("</" + ELEM_TEMPLATE + ">");
             }
-
-            rootElement.appendChild(classElement);
+            w.write("</" + ELEM_CLASS + ">");
         }
+        w.write("</" + ELEM_ROOT + ">");
+        w.flush();
+    }
 
-        final StreamResult result = new StreamResult(os);
-        try {
-            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            final DOMSource source = new DOMSource(doc);
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
-            throw new RuntimeException(e);
+    private static void writeAttributeValue(Writer w, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '&') {
+                w.write("&amp;");
+            } else if (c == '"') {
+                w.write("&quot;");
+            } else if (c == '<') {
+                w.write("&lt;");
+            } else if (c == '>') {
+                w.write("&gt;");
+            } else if (c < ' ') {
+                w.write("&#" + (int) c + ";");
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                w.write("&#" + Character.toCodePoint(c, value.charAt(++i)) + ";");
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                throw new IOException("Invalid UTF-16 surrogate: " + Integer.toHexString(c));
+            } else {
+                w.write(c);
+            }
         }
     }
 
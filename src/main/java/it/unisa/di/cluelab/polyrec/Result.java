@@ -43,12 +43,20 @@ public class Result {
 
     private String name;
     private Double score;
+    private Double distance;
+    private int matchedTemplates;
+    private int prunedTemplates;
 
     protected Result(String name, Double score) {
         this.name = name;
         this.score = Math.round(score * 10000) / 100.;
     }
 
+    protected Result(String name, Double score, Double distance) {
+        this(name, score);
+        this.distance = distance;
+    }
+
     /**
      * @return The name of the recognized class
      */
@@ -63,4 +71,30 @@ public class Result {
         return this.score;
     }
 
+    /**
+     * @return The distance from the best matching template, or null if not available
+     */
+    public Double getDistance() {
+        return this.distance;
+    }
+
+    /**
+     * @return The number of templates matched against the gesture
+     */
+    public int getMatchedTemplates() {
+        return this.matchedTemplates;
+    }
+
+    /**
+     * @return The number of templates skipped by pruning, without matching them against the gesture
+     */
+    public int getPrunedTemplates() {
+        return this.prunedTemplates;
+    }
+
+    void setStatistics(int matched, int pruned) {
+        this.matchedTemplates = matched;
+        this.prunedTemplates = pruned;
+    }
+
 }
@@ -0,0 +1,92 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.Locale;
+
+/**
+ * Accuracy and speed of recognition with a given shortlist size.
+ * 
+ * @see PolyRecognizerGSS#evaluateShortlist(java.util.Map, int...)
+ */
+public class ShortlistReport {
+    private final int size;
+    private final int gestures;
+    private final int correct;
+    private final int agreeing;
+    private final long nanos;
+
+    ShortlistReport(int size, int gestures, int correct, int agreeing, long nanos) {
+        this.size = size;
+        this.gestures = gestures;
+        this.correct = correct;
+        this.agreeing = agreeing;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return The shortlist size, 0 if all of the templates were matched
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The fraction of gestures recognized as their own class
+     */
+    public double getAccuracy() {
+        return gestures == 0 ? 0 : (double) correct / gestures;
+    }
+
+    /**
+     * @return The fraction of gestures recognized as when matching all of the templates
+     */
+    public double getAgreement() {
+        return gestures == 0 ? 0 : (double) agreeing / gestures;
+    }
+
+    /**
+     * @return The mean recognition time, in nanoseconds
+     */
+    public double getMeanNanos() {
+        return gestures == 0 ? 0 : (double) nanos / gestures;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "shortlist %d: accuracy %.2f%%, agreement %.2f%%, %.3f ms/gesture",
+                size, getAccuracy() * 100, getAgreement() * 100, getMeanNanos() / 1e6);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+/**
+ * A template, i.e. a sample gesture of a class approximated by its polyline. Templates are compiled once created: the
+ * data needed for matching them are precomputed and never modified, so they can be shared among recognition threads.
+ */
+public final class Template {
+    private final String name;
+    private final Polyline polyline;
+    private final PolylineFeatures features;
+    private final CompiledPolyline compiled;
+
+    /**
+     * @param name
+     *            The class name
+     * @param polyline
+     *            The polyline approximating the template gesture
+     */
+    public Template(String name, Polyline polyline) {
+        this.name = name;
+        this.polyline = polyline;
+        this.features = new PolylineFeatures(polyline);
+        this.compiled = new CompiledPolyline(polyline);
+    }
+
+    /**
+     * @param name
+     *            The class name
+     * @param polyline
+     *            The polyline approximating the template gesture
+     * @param compiled
+     *            The packed vectors of the polyline, as previously compiled
+     */
+    Template(String name, Polyline polyline, CompiledPolyline compiled) {
+        this.name = name;
+        this.polyline = polyline;
+        this.features = new PolylineFeatures(polyline);
+        this.compiled = compiled;
+    }
+
+    /**
+     * @return The class name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The polyline approximating the template gesture
+     */
+    public Polyline getPolyline() {
+        return polyline;
+    }
+
+    /**
+     * @return The template gesture
+     */
+    public Gesture getGesture() {
+        return polyline.getGesture();
+    }
+
+    /**
+     * @return The precomputed features of the polyline
+     */
+    PolylineFeatures getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return The packed vectors of the polyline
+     */
+    CompiledPolyline getCompiled() {
+        return compiled;
+    }
+
+}
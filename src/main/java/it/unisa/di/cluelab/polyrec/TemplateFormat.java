@@ -0,0 +1,507 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary .pgs format of the templates. All of the numbers are little-endian; strings are stored as their length in
+ * bytes (-1 for null) followed by their UTF-8 bytes.
+ * 
+ * <pre>
+ * header        magic "PGSB", int version, long checksum of the compilation parameters, int flags (1: vectors present),
+ *                   int number of classes, int number of templates
+ * class table   for each class: string name, int number of templates
+ * templates     for each template, grouped by class in the order of the class table:
+ *                   int flags (1: rotation invariant, 2: info present), int number of pointers,
+ *                   if info present: int subject, string speed, string name, int number,
+ *                   int number of points n, double[n] x, double[n] y, long[n] timestamps,
+ *                   double[n] cumulative lengths,
+ *                   int number of vertexes m, int[m] indexes of the vertexes,
+ *                   if vectors present: double indicative angle, double[m] intensities, double[m] angles,
+ *                   double[m] cosines, double[m] sines, double[m] cumulative lengths,
+ *                   double[m] relative lengths at the vertexes, double[m] slope changes
+ * </pre>
+ * 
+ * The vertexes and the vectors are only trusted if they were computed with the same parameters, i.e. if the
+ * checksum matches {@link Recognizer#getCompilationChecksum()} of the recognizer loading them: otherwise the templates
+ * are compiled again.
+ * <p>
+ * The former format, a serialized map from class names to lists of polylines, starts with the magic number of Java
+ * serialization (0xACED), so the two formats can be told apart.
+ */
+final class TemplateFormat {
+    /** Magic number, "PGSB" read as a little-endian int. */
+    static final int MAGIC = 0x42534750;
+    static final int VERSION = 1;
+    static final int FLAG_ROT_INV = 1;
+    private static final int FLAG_INFO = 2;
+    private static final int FLAG_VECTORS = 1;
+    private static final int VECTOR_ARRAYS = 7;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TemplateFormat() {
+    }
+
+    /**
+     * Writes templates.
+     * 
+     * @param classes
+     *            The templates, grouped by class
+     * @param checksum
+     *            The checksum of the parameters used for compiling the templates
+     * @param vectors
+     *            Whether to write the compiled vectors too
+     * @param channel
+     *            The destination channel
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    static void write(Map<String, List<Template>> classes, long checksum, boolean vectors,
+            WritableByteChannel channel) throws IOException {
+        final Writer w = new Writer(channel);
+        int count = 0;
+        for (List<Template> l : classes.values()) {
+            count += l.size();
+        }
+        w.ensure(28);
+        w.buffer.putInt(MAGIC).putInt(VERSION).putLong(checksum)
+                .putInt(vectors ? FLAG_VECTORS : 0).putInt(classes.size()).putInt(count);
+        for (Map.Entry<String, List<Template>> e : classes.entrySet()) {
+            w.putString(e.getKey());
+            w.ensure(4);
+            w.buffer.putInt(e.getValue().size());
+        }
+        for (List<Template> l : classes.values()) {
+            for (Template t : l) {
+                final Gesture g = t.getGesture();
+                final GestureInfo info = g.getInfo();
+                w.ensure(8);
+                w.buffer.putInt((g.isRotInv() ? FLAG_ROT_INV : 0) | (info != null ? FLAG_INFO : 0))
+                        .putInt(g.getPointers());
+                if (info != null) {
+                    w.ensure(4);
+                    w.buffer.putInt(info.getSubject());
+                    w.putString(info.getSpeed());
+                    w.putString(info.getName());
+                    w.ensure(4);
+                    w.buffer.putInt(info.getNumber());
+                }
+                final int n = g.getNumPoints();
+                w.ensure(4);
+                w.buffer.putInt(n);
+                for (int i = 0; i < n; i++) {
+                    w.ensure(8);
+                    w.buffer.putDouble(g.getX(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    w.ensure(8);
+                    w.buffer.putDouble(g.getY(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    w.ensure(8);
+                    w.buffer.putLong(g.getTime(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    w.ensure(8);
+                    w.buffer.putDouble(g.getLength(i));
+                }
+                final List<Integer> indexes = t.getPolyline().getIndexes();
+                w.ensure(4);
+                w.buffer.putInt(indexes.size());
+                for (int index : indexes) {
+                    w.ensure(4);
+                    w.buffer.putInt(index);
+                }
+                if (vectors) {
+                    final CompiledPolyline c = t.getCompiled();
+                    w.ensure(8);
+                    w.buffer.putDouble(c.indicativeAngle);
+                    w.putDoubles(c.intensities);
+                    w.putDoubles(c.angles);
+                    w.putDoubles(c.cos);
+                    w.putDoubles(c.sin);
+                    w.putDoubles(c.lengths);
+                    w.putDoubles(c.lengthsAtAngles);
+                    w.putDoubles(c.slopeChanges);
+                }
+            }
+        }
+        w.flush();
+    }
+
+    /**
+     * Reads templates from a channel.
+     * 
+     * @param channel
+     *            The source channel, read up to its end
+     * @param compiler
+     *            The recognizer compiling the templates whose polylines cannot be trusted
+     * @return The templates, grouped by class in the order of the class table
+     * @throws IOException
+     *             if an I/O error occurs or the data are not valid.
+     */
+    static List<Template> read(ReadableByteChannel channel, Recognizer compiler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        return read(buffer, compiler);
+    }
+
+    /**
+     * Reads templates from a buffer.
+     * 
+     * @param buffer
+     *            The data, from the position to the limit of the buffer
+     * @param compiler
+     *            The recognizer compiling the templates whose polylines cannot be trusted
+     * @return The templates, grouped by class in the order of the class table
+     * @throws IOException
+     *             if the data are not valid.
+     */
+    static List<Template> read(ByteBuffer buffer, Recognizer compiler) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final Header header = new Header(buffer, compiler.getCompilationChecksum());
+            if (!header.trusted) {
+                // the gestures are compiled all together, in parallel if enabled
+                final List<String> names = new ArrayList<String>(header.count);
+                final List<Gesture> gestures = new ArrayList<Gesture>(header.count);
+                for (int c = 0; c < header.names.size(); c++) {
+                    for (int s = 0; s < header.sizes.get(c); s++) {
+                        final Gesture gesture = readGesture(buffer);
+                        skipVectors(buffer, header, readIndexes(buffer, gesture.getNumPoints()).size());
+                        names.add(header.names.get(c));
+                        gestures.add(gesture);
+                    }
+                }
+                try {
+                    return compiler.compileTemplates(names, gestures, null);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Illegal gesture.", e);
+                }
+            }
+            final List<Template> res = new ArrayList<Template>(header.count);
+            for (int c = 0; c < header.names.size(); c++) {
+                for (int s = 0; s < header.sizes.get(c); s++) {
+                    res.add(readTemplate(buffer, header.names.get(c), header));
+                }
+            }
+            return res;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated .pgs data.");
+        }
+    }
+
+    /**
+     * Reads a template along with its stored polyline, which must be trusted.
+     * 
+     * @param buffer
+     *            The data, in little-endian order, positioned at the template
+     * @param name
+     *            The class name
+     * @param header
+     *            The header of the data
+     * @return The template
+     * @throws IOException
+     *             if the data are not valid.
+     */
+    static Template readTemplate(ByteBuffer buffer, String name, Header header) throws IOException {
+        final Gesture gesture = readGesture(buffer);
+        final List<Integer> indexes = readIndexes(buffer, gesture.getNumPoints());
+        final Polyline polyline = new Polyline(gesture, indexes);
+        if (!header.vectors) {
+            return new Template(name, polyline);
+        }
+        final double indicativeAngle = buffer.getDouble();
+        final double[][] arrays = new double[VECTOR_ARRAYS][indexes.size()];
+        for (double[] a : arrays) {
+            getDoubles(buffer, a);
+        }
+        return new Template(name, polyline, new CompiledPolyline(polyline, arrays, indicativeAngle));
+    }
+
+    private static Gesture readGesture(ByteBuffer buffer) throws IOException {
+        final int flags = buffer.getInt();
+        final int pointers = buffer.getInt();
+        GestureInfo info = null;
+        if ((flags & FLAG_INFO) != 0) {
+            final int subject = buffer.getInt();
+            final String speed = getString(buffer);
+            final String infoName = getString(buffer);
+            info = new GestureInfo(subject, speed, infoName, buffer.getInt());
+        }
+        final int n = count(buffer);
+        final double[] xs = new double[n];
+        final double[] ys = new double[n];
+        final long[] ts = new long[n];
+        final double[] lengths = new double[n];
+        getDoubles(buffer, xs);
+        getDoubles(buffer, ys);
+        buffer.asLongBuffer().get(ts);
+        buffer.position(buffer.position() + 8 * n);
+        getDoubles(buffer, lengths);
+        final Gesture gesture = Gesture.wrap(xs, ys, ts, lengths);
+        gesture.setRotInv((flags & FLAG_ROT_INV) != 0);
+        gesture.setPointers(pointers);
+        gesture.setInfo(info);
+        return gesture;
+    }
+
+    private static List<Integer> readIndexes(ByteBuffer buffer, int points) throws IOException {
+        final int m = countVertexes(buffer);
+        final List<Integer> indexes = new ArrayList<Integer>(m);
+        for (int v = 0; v < m; v++) {
+            indexes.add(checkIndex(buffer.getInt(), points));
+        }
+        return indexes;
+    }
+
+    private static int countVertexes(ByteBuffer buffer) throws IOException {
+        final int m = count(buffer);
+        if (m == 0) {
+            throw new IOException("Empty polyline.");
+        }
+        return m;
+    }
+
+    private static int checkIndex(int index, int points) throws IOException {
+        if (index < 0 || index >= points) {
+            throw new IOException("Illegal vertex index: " + index);
+        }
+        return index;
+    }
+
+    /**
+     * Skips the flags, the number of pointers and the info of a template.
+     * 
+     * @param buffer
+     *            The data, in little-endian order, positioned at the template
+     * @return The number of pointers of the template
+     * @throws IOException
+     *             if the data are not valid.
+     */
+    static int skipTemplateHead(ByteBuffer buffer) throws IOException {
+        final int flags = buffer.getInt();
+        final int pointers = buffer.getInt();
+        if ((flags & FLAG_INFO) != 0) {
+            buffer.getInt();
+            getString(buffer);
+            getString(buffer);
+            buffer.getInt();
+        }
+        return pointers;
+    }
+
+    /**
+     * Skips the points, the vertexes and the vectors of a template, checking the indexes of the vertexes, so that the
+     * template can be read in place.
+     * 
+     * @param buffer
+     *            The data, in little-endian order, positioned at the number of points of the template
+     * @param header
+     *            The header of the data
+     * @throws IOException
+     *             if the data are not valid.
+     */
+    static void skipTemplateBody(ByteBuffer buffer, Header header) throws IOException {
+        final int n = count(buffer);
+        skip(buffer, 32L * n);
+        final int m = countVertexes(buffer);
+        for (int v = 0; v < m; v++) {
+            checkIndex(buffer.getInt(), n);
+        }
+        skipVectors(buffer, header, m);
+    }
+
+    private static void skipVectors(ByteBuffer buffer, Header header, int vertexes) {
+        if (header.vectors) {
+            skip(buffer, 8 + 8L * VECTOR_ARRAYS * vertexes);
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, long bytes) {
+        if (bytes > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + (int) bytes);
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] dst) {
+        buffer.asDoubleBuffer().get(dst);
+        buffer.position(buffer.position() + 8 * dst.length);
+    }
+
+    private static int count(ByteBuffer buffer) throws IOException {
+        final int count = buffer.getInt();
+        // each element takes at least one byte
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Illegal count: " + count);
+        }
+        return count;
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Illegal string length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * The header and the class table.
+     */
+    static final class Header {
+        // CHECKSTYLE:OFF
+        final int version;
+        final boolean vectors;
+        // whether the stored vertexes and vectors were computed with the current parameters
+        final boolean trusted;
+        final List<String> names = new ArrayList<String>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final int count;
+        // CHECKSTYLE:ON
+
+        /**
+         * @param buffer
+         *            The data, in little-endian order
+         * @param checksum
+         *            The checksum of the current compilation parameters, or 0 if stored polylines cannot be trusted
+         * @throws IOException
+         *             if the data are not valid.
+         */
+        Header(ByteBuffer buffer, long checksum) throws IOException {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a .pgs file.");
+            }
+            version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported .pgs version: " + version);
+            }
+            final long stored = buffer.getLong();
+            trusted = checksum != 0 && stored == checksum;
+            vectors = (buffer.getInt() & FLAG_VECTORS) != 0;
+            final int classes = count(buffer);
+            count = count(buffer);
+            long sum = 0;
+            for (int c = 0; c < classes; c++) {
+                final String name = getString(buffer);
+                if (name == null) {
+                    throw new IOException("Null class name.");
+                }
+                names.add(name);
+                sizes.add(count(buffer));
+                sum += sizes.get(c);
+            }
+            if (sum != count) {
+                throw new IOException("Wrong number of templates: " + sum + " instead of " + count);
+            }
+        }
+    }
+
+    /**
+     * Buffered writer of little-endian data to a channel.
+     */
+    private static final class Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void putDoubles(double[] a) throws IOException {
+            for (double d : a) {
+                ensure(8);
+                buffer.putDouble(d);
+            }
+        }
+
+        void putString(String s) throws IOException {
+            if (s == null) {
+                ensure(4);
+                buffer.putInt(-1);
+                return;
+            }
+            final byte[] bytes = s.getBytes(UTF8);
+            ensure(4);
+            buffer.putInt(bytes.length);
+            int from = 0;
+            while (from < bytes.length) {
+                ensure(1);
+                final int chunk = Math.min(buffer.remaining(), bytes.length - from);
+                buffer.put(bytes, from, chunk);
+                from += chunk;
+            }
+        }
+    }
+
+}
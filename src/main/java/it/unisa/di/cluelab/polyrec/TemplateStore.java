@@ -0,0 +1,190 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Versioned store of templates. The templates are organized in immutable generations: readers take the current
+ * generation and use it without locking for as long as they need, while writers build a new generation from the
+ * current one and atomically publish it. Writers are serialized among themselves, so that no update gets lost.
+ */
+public final class TemplateStore {
+    private final AtomicReference<Generation> current = new AtomicReference<Generation>(
+            new Generation(0, new TreeMap<String, List<Template>>(), 0));
+
+    /**
+     * @return The current generation
+     */
+    public Generation getGeneration() {
+        return current.get();
+    }
+
+    /**
+     * @return The version of the current generation
+     */
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    /**
+     * Publishes a new generation including a further template.
+     * 
+     * @param template
+     *            The template to add
+     * @return The published generation
+     */
+    public Generation add(Template template) {
+        return addAll(Collections.singletonList(template), false);
+    }
+
+    /**
+     * Publishes a new generation including the given templates, in the given order. The map of the classes and the
+     * lists of the classes receiving templates are copied, so the cost of a publication grows with the number of
+     * classes and with the size of the modified classes, not with the total number of templates.
+     * 
+     * @param toAdd
+     *            The templates to add
+     * @param removeExistent
+     *            whether the new generation must contain only the given templates
+     * @return The published generation
+     */
+    public synchronized Generation addAll(Collection<Template> toAdd, boolean removeExistent) {
+        final Generation prev = current.get();
+        final TreeMap<String, List<Template>> classes = removeExistent ? new TreeMap<String, List<Template>>()
+                : new TreeMap<String, List<Template>>(prev.classes);
+        // lists of the previous generation are shared until they are modified
+        final Map<String, List<Template>> copied = new TreeMap<String, List<Template>>();
+        for (Template t : toAdd) {
+            List<Template> list = copied.get(t.getName());
+            if (list == null) {
+                final List<Template> old = classes.get(t.getName());
+                list = old == null ? new ArrayList<Template>() : new ArrayList<Template>(old);
+                copied.put(t.getName(), list);
+                classes.put(t.getName(), list);
+            }
+            list.add(t);
+        }
+        for (Map.Entry<String, List<Template>> e : copied.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+            classes.put(e.getKey(), e.getValue());
+        }
+        final int size = removeExistent ? toAdd.size() : prev.size() + toAdd.size();
+        final Generation next = new Generation(prev.getVersion() + 1, classes, size);
+        current.set(next);
+        return next;
+    }
+
+    /**
+     * Publishes an empty generation.
+     * 
+     * @return The published generation
+     */
+    public Generation clear() {
+        return addAll(Collections.<Template>emptyList(), true);
+    }
+
+    /**
+     * An immutable set of templates.
+     */
+    public static final class Generation {
+        private final long version;
+        private final Map<String, List<Template>> classes;
+        private final int size;
+        // flattened on first use, so that publishing a generation does not copy all of the templates
+        private volatile List<Template> all;
+
+        Generation(long version, TreeMap<String, List<Template>> classes, int size) {
+            this.version = version;
+            this.classes = Collections.unmodifiableMap(classes);
+            this.size = size;
+        }
+
+        /**
+         * @return The version number, increased at each publication
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return The templates grouped by class, sorted by class name
+         */
+        public Map<String, List<Template>> getClasses() {
+            return classes;
+        }
+
+        /**
+         * @return The names of the classes
+         */
+        public Set<String> getClassNames() {
+            return classes.keySet();
+        }
+
+        /**
+         * All of the templates. The list is built at the first call on each generation, in time linear in the number
+         * of templates.
+         * 
+         * @return All of the templates, sorted by class name and then by insertion order
+         */
+        public List<Template> getTemplates() {
+            List<Template> res = all;
+            if (res == null) {
+                // concurrent callers may build equal lists, any of them can be kept
+                final ArrayList<Template> list = new ArrayList<Template>(size);
+                for (List<Template> l : classes.values()) {
+                    list.addAll(l);
+                }
+                res = Collections.unmodifiableList(list);
+                all = res;
+            }
+            return res;
+        }
+
+        /**
+         * @return The number of templates
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+}
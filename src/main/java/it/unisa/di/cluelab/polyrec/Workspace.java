@@ -0,0 +1,243 @@
+/*
+PolyRec Project
+Copyright (c) 2015-2017, Vittorio Fuccella - CLUE Lab - http://cluelab.di.unisa.it
+All rights reserved. Includes a reference implementation of the following:
+
+* Vittorio Fuccella, Gennaro Costagliola. "Unistroke Gesture Recognition
+  Through Polyline Approximation and Alignment". In Proceedings of the 33rd
+  annual ACM conference on Human factors in computing systems (CHI '15).
+  April 18-23, 2015, Seoul, Republic of Korea.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the PolyRec Project nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package it.unisa.di.cluelab.polyrec;
+
+/**
+ * Reusable scratch buffers of a recognition thread. A workspace is never shared: each thread gets its own one, which
+ * is reused across all of the template comparisons and recognitions performed by that thread.
+ */
+final class Workspace {
+    private static final int INITIAL_CAPACITY = 32;
+
+    // alignment of the two polylines being compared
+    final AlignedVertexes alignment = new AlignedVertexes();
+    // vectors of the two aligned polylines, as horizontal and vertical components: the ones of the second polyline
+    // are already rotated
+    double[] xU = new double[INITIAL_CAPACITY];
+    double[] yU = new double[INITIAL_CAPACITY];
+    double[] xT = new double[INITIAL_CAPACITY];
+    double[] yT = new double[INITIAL_CAPACITY];
+    int vectors;
+    // scratch space for polylines without a compiled form
+    private int[] indexesU = new int[INITIAL_CAPACITY];
+    private int[] indexesT = new int[INITIAL_CAPACITY];
+    private double[] lengths = new double[INITIAL_CAPACITY];
+    private double[] intensities = new double[INITIAL_CAPACITY];
+    private double[] angles = new double[INITIAL_CAPACITY];
+
+    /**
+     * Loads the vectors of two aligned polylines, in the same form of {@link Polyline#getVectors()}.
+     * 
+     * @param u
+     *            The first polyline
+     * @param cu
+     *            The compiled form of the first polyline, or null if not available
+     * @param t
+     *            The second polyline
+     * @param ct
+     *            The compiled form of the second polyline, or null if not available
+     * @param rotation
+     *            The rotation of the second polyline
+     */
+    void loadVectors(Polyline u, CompiledPolyline cu, Polyline t, CompiledPolyline ct, double rotation) {
+        indexesU = toArray(u, indexesU);
+        indexesT = toArray(t, indexesT);
+        loadVectors(u.getGesture(), indexesU, u.getNumVertexes(), cu, t.getGesture(), indexesT, t.getNumVertexes(),
+                ct, rotation);
+    }
+
+    private static int[] toArray(Polyline p, int[] buffer) {
+        final int[] res = buffer.length < p.getNumVertexes() ? new int[p.getNumVertexes()] : buffer;
+        for (int i = 0; i < p.getNumVertexes(); i++) {
+            res[i] = p.getPoint(i);
+        }
+        return res;
+    }
+
+    /**
+     * Loads the vectors of two aligned polylines, given as the indexes of their vertexes.
+     * 
+     * @param gu
+     *            The gesture of the first polyline
+     * @param iu
+     *            The vertexes of the first polyline
+     * @param nu
+     *            The number of vertexes of the first polyline
+     * @param cu
+     *            The compiled form of the first polyline, or null if not available
+     * @param gt
+     *            The gesture of the second polyline
+     * @param it
+     *            The vertexes of the second polyline
+     * @param nt
+     *            The number of vertexes of the second polyline
+     * @param ct
+     *            The compiled form of the second polyline, or null if not available
+     * @param rotation
+     *            The rotation of the second polyline
+     */
+    void loadVectors(Gesture gu, int[] iu, int nu, CompiledPolyline cu, Gesture gt, int[] it, int nt,
+            CompiledPolyline ct, double rotation) {
+        prepare(nu, nt);
+        load(gu, iu, nu, cu, xU, yU, 0);
+        load(gt, it, nt, ct, xT, yT, rotation);
+    }
+
+    /**
+     * Loads the vectors of a polyline and of a template read in place from a library, once aligned.
+     * 
+     * @param gu
+     *            The gesture of the polyline
+     * @param iu
+     *            The vertexes of the aligned polyline
+     * @param nu
+     *            The number of vertexes of the aligned polyline
+     * @param cu
+     *            The compiled form of the aligned polyline, or null if not available
+     * @param t
+     *            The template
+     * @param it
+     *            The vertexes of the aligned template
+     * @param nt
+     *            The number of vertexes of the aligned template, whose stored vectors are used if no vertex was added
+     * @param rotation
+     *            The rotation of the template
+     */
+    void loadVectors(Gesture gu, int[] iu, int nu, CompiledPolyline cu, MappedTemplateLibrary.Cursor t, int[] it,
+            int nt, double rotation) {
+        prepare(nu, nt);
+        load(gu, iu, nu, cu, xU, yU, 0);
+        final double cosR = Math.cos(rotation);
+        final double sinR = Math.sin(rotation);
+        if (nt == t.getNumVertexes() && nt == vectors) {
+            for (int i = 0; i < vectors; i++) {
+                final double intensity = t.getIntensity(i);
+                final double cos = t.getCos(i);
+                final double sin = t.getSin(i);
+                xT[i] = intensity * (cos * cosR - sin * sinR);
+                yT[i] = intensity * (sin * cosR + cos * sinR);
+            }
+        } else {
+            loadVectors(t, it, nt);
+            rotate(xT, yT, cosR, sinR);
+        }
+    }
+
+    private void prepare(int nu, int nt) {
+        if (nu != nt) {
+            System.out.println("distance at angle " + nu + " " + nt);
+        }
+        vectors = Math.min(nu, nt);
+        final int capacity = Math.max(nu, nt);
+        if (xU.length < capacity) {
+            final int newCapacity = Math.max(capacity, 2 * xU.length);
+            xU = new double[newCapacity];
+            yU = new double[newCapacity];
+            xT = new double[newCapacity];
+            yT = new double[newCapacity];
+            lengths = new double[newCapacity];
+            intensities = new double[newCapacity];
+            angles = new double[newCapacity];
+        }
+    }
+
+    private void load(Gesture g, int[] indexes, int n, CompiledPolyline cp, double[] x, double[] y, double rotation) {
+        final double cosR = Math.cos(rotation);
+        final double sinR = Math.sin(rotation);
+        if (cp != null && cp.size() == vectors) {
+            for (int i = 0; i < vectors; i++) {
+                x[i] = cp.intensities[i] * (cp.cos[i] * cosR - cp.sin[i] * sinR);
+                y[i] = cp.intensities[i] * (cp.sin[i] * cosR + cp.cos[i] * sinR);
+            }
+        } else {
+            loadVectors(g, indexes, n);
+            rotate(x, y, cosR, sinR);
+        }
+    }
+
+    // rotates the vectors loaded in the scratch space
+    private void rotate(double[] x, double[] y, double cosR, double sinR) {
+        for (int i = 0; i < vectors; i++) {
+            final double cos = Math.cos(angles[i]);
+            final double sin = Math.sin(angles[i]);
+            x[i] = intensities[i] * (cos * cosR - sin * sinR);
+            y[i] = intensities[i] * (sin * cosR + cos * sinR);
+        }
+    }
+
+    // same computations of Polyline
+    private void loadVectors(Gesture g, int[] indexes, int n) {
+        if (vectors == 0) {
+            return;
+        }
+        lengths[0] = 0;
+        for (int i = 1; i < n; i++) {
+            lengths[i] = lengths[i - 1] + g.distance(indexes[i - 1], indexes[i]);
+        }
+        final double endpointsDistance = g.getEndpointsDistance();
+        final double total = lengths[n - 1] + endpointsDistance;
+        final int lines = vectors - 1;
+        for (int i = 0; i < lines; i++) {
+            intensities[i] = (lengths[i + 1] - lengths[i]) / total;
+            angles[i] = Polyline.getLineAngle(g.getX(indexes[i]), g.getY(indexes[i]), g.getX(indexes[i + 1]),
+                    g.getY(indexes[i + 1]));
+        }
+        final int last = g.getNumPoints() - 1;
+        intensities[lines] = endpointsDistance / total;
+        angles[lines] = Polyline.getLineAngle(g.getX(0), g.getY(0), g.getX(last), g.getY(last));
+    }
+
+    // same computations, on a template read in place
+    private void loadVectors(MappedTemplateLibrary.Cursor t, int[] indexes, int n) {
+        if (vectors == 0) {
+            return;
+        }
+        lengths[0] = 0;
+        for (int i = 1; i < n; i++) {
+            lengths[i] = lengths[i - 1] + t.distance(indexes[i - 1], indexes[i]);
+        }
+        final double endpointsDistance = t.getEndpointsDistance();
+        final double total = lengths[n - 1] + endpointsDistance;
+        final int lines = vectors - 1;
+        for (int i = 0; i < lines; i++) {
+            intensities[i] = (lengths[i + 1] - lengths[i]) / total;
+            angles[i] = Polyline.getLineAngle(t.getX(indexes[i]), t.getY(indexes[i]), t.getX(indexes[i + 1]),
+                    t.getY(indexes[i + 1]));
+        }
+        final int last = t.getNumPoints() - 1;
+        intensities[lines] = endpointsDistance / total;
+        angles[lines] = Polyline.getLineAngle(t.getX(0), t.getY(0), t.getX(last), t.getY(last));
+    }
+
+}
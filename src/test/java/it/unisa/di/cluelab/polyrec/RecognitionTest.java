@@ -35,6 +35,34 @@ package it.unisa.di.cluelab.polyrec;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -108,4 +136,1094 @@ public class RecognitionTest {
         assertEquals(null, recognizer.recognize(gest));
     }
 
+    @Test
+    public void concurrentRecognitionTest() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int n = 0; n < 50; n++) {
+                            for (int i = 0; i < gestures.length; i++) {
+                                if (!String.valueOf(i).equals(recognizer.recognize(gestures[i]).getName())) {
+                                    return false;
+                                }
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> f : futures) {
+                assertTrue(f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void addWhileRecognizingTest() throws Exception {
+        final long version = recognizer.getTemplatesVersion();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> reader = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int n = 0; n < 200; n++) {
+                        for (int i = 0; i < gestures.length; i++) {
+                            if (recognizer.recognize(gestures[i]) == null) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }
+            });
+            for (int n = 0; n < 100; n++) {
+                recognizer.addTemplate("added" + (n % 5), gestures[n % gestures.length]);
+            }
+            assertTrue(reader.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(version + 100, recognizer.getTemplatesVersion());
+        assertEquals(gestures.length + 5, recognizer.getClassNames().size());
+        assertEquals(20, recognizer.getTemplates().get("added0").size());
+    }
+
+    @Test
+    public void parallelScanTest() throws Exception {
+        final Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            recognizer.addTemplate(String.valueOf(n % gestures.length), jitter(gestures[n % gestures.length], random));
+        }
+        final Result[] expected = new Result[20];
+        final Gesture[] queries = new Gesture[expected.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = jitter(gestures[i % gestures.length], random);
+            expected[i] = recognizer.recognize(queries[i]);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ((PolyRecognizerGSS) recognizer).setParallelScan(executor, 7);
+            for (int i = 0; i < queries.length; i++) {
+                final Result r = recognizer.recognize(queries[i]);
+                assertEquals(expected[i].getName(), r.getName());
+                assertEquals(expected[i].getScore(), r.getScore());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void batchRecognitionTest() {
+        final Random random = new Random(2);
+        final List<Gesture> batch = new ArrayList<Gesture>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(jitter(gestures[i % gestures.length], random));
+        }
+        batch.add(new Gesture());
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int run = 0; run < 2; run++) {
+                if (run == 1) {
+                    recognizer.setParallelBatch(executor, 4);
+                }
+                final BatchResult res = recognizer.recognizeAll(batch);
+                assertEquals(batch.size(), res.getGestures());
+                assertEquals(batch.size() - 1, res.getRecognized());
+                assertTrue(res.getThreads() >= 1 && res.getThreads() <= (run == 0 ? 1 : 4));
+                assertNull(res.getResults().get(batch.size() - 1));
+                for (int i = 0; i < batch.size() - 1; i++) {
+                    final Result expected = recognizer.recognize(batch.get(i));
+                    assertEquals(expected.getName(), res.getResults().get(i).getName());
+                    assertEquals(expected.getScore(), res.getResults().get(i).getScore());
+                }
+                assertTrue(res.getThroughput() > 0);
+            }
+            // without executor, or when it rejects the tasks, the batch is recognized by the calling thread
+            assertEquals(1, recognizer.recognizeAll(batch, null, 4).getThreads());
+            final ExecutorService rejecting = Executors.newFixedThreadPool(1);
+            rejecting.shutdown();
+            final BatchResult rejected = recognizer.recognizeAll(batch, rejecting, 4);
+            assertEquals(1, rejected.getThreads());
+            assertEquals(batch.size() - 1, rejected.getRecognized());
+            // the first recognitions wait for each other, so that they are run by all the threads
+            final CountDownLatch started = new CountDownLatch(4);
+            final Recognizer waiting = new PolyRecognizerGSS() {
+                @Override
+                public Result recognize(Gesture gesture) {
+                    if (started.getCount() > 0) {
+                        started.countDown();
+                        try {
+                            assertTrue(started.await(10, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return super.recognize(gesture);
+                }
+            };
+            assertEquals(4, waiting.recognizeAll(batch, executor, 4).getThreads());
+        } finally {
+            recognizer.setParallelBatch(null, 0);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void nBestTest() {
+        final Random random = new Random(3);
+        for (int n = 0; n < 40; n++) {
+            recognizer.addTemplate(String.valueOf(n % gestures.length), jitter(gestures[n % gestures.length], random));
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 0; i < 10; i++) {
+                final Gesture query = jitter(gestures[i % gestures.length], random);
+                final Result best = rec.recognize(query);
+                rec.setParallelScan(null, 0);
+                final NBestResult res = rec.recognize(query, 3);
+                rec.setParallelScan(executor, 3);
+                final NBestResult parallelRes = rec.recognize(query, 3);
+
+                assertEquals(3, res.getClasses().size());
+                assertEquals(3, res.getTemplates().size());
+                assertEquals(best.getName(), res.getBest().getName());
+                assertEquals(best.getScore(), res.getBest().getScore());
+                assertEquals(best.getDistance(), res.getTemplates().get(0).getDistance());
+                final Set<String> names = new HashSet<String>();
+                for (int c = 0; c < res.getClasses().size(); c++) {
+                    assertTrue(names.add(res.getClasses().get(c).getName()));
+                    assertEquals(res.getClasses().get(c).getName(), parallelRes.getClasses().get(c).getName());
+                    assertEquals(res.getTemplates().get(c).getGesture(),
+                            parallelRes.getTemplates().get(c).getGesture());
+                    if (c > 0) {
+                        assertTrue(res.getClasses().get(c - 1).getDistance() <= res.getClasses().get(c).getDistance());
+                        assertTrue(
+                                res.getTemplates().get(c - 1).getDistance() <= res.getTemplates().get(c).getDistance());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertNull(rec.recognize(new Gesture(), 5).getBest());
+    }
+
+    @Test
+    public void pruningTest() {
+        final Random random = new Random(4);
+        for (int n = 0; n < 100; n++) {
+            recognizer.addTemplate(String.valueOf(n % gestures.length), jitter(gestures[n % gestures.length], random));
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        int pruned = 0;
+        for (int i = 0; i < 20; i++) {
+            final Gesture query = jitter(gestures[i % gestures.length], random);
+            rec.setPruning(0);
+            final Result expected = rec.recognize(query);
+            final NBestResult expectedNBest = rec.recognize(query, 3);
+            assertEquals(0, expected.getPrunedTemplates());
+            rec.setPruning(1);
+            final Result r = rec.recognize(query);
+            final NBestResult nBest = rec.recognize(query, 3);
+            assertEquals(expected.getName(), r.getName());
+            assertEquals(expected.getDistance(), r.getDistance());
+            assertEquals(expected.getMatchedTemplates(), r.getMatchedTemplates() + r.getPrunedTemplates());
+            for (int c = 0; c < 3; c++) {
+                assertEquals(expectedNBest.getClasses().get(c).getName(), nBest.getClasses().get(c).getName());
+                assertEquals(expectedNBest.getClasses().get(c).getDistance(), nBest.getClasses().get(c).getDistance());
+                assertEquals(expectedNBest.getTemplates().get(c).getDistance(),
+                        nBest.getTemplates().get(c).getDistance());
+            }
+            pruned += r.getPrunedTemplates();
+        }
+        assertTrue(pruned > 0);
+    }
+
+    @Test
+    public void nBestPruningTest() {
+        // open strokes have endpoint vectors far apart, so that the lower bound actually prunes templates
+        final PolyRecognizerGSS rec = new PolyRecognizerGSS();
+        final Random random = new Random(13);
+        final Gesture[] strokes = new Gesture[10];
+        for (int c = 0; c < strokes.length; c++) {
+            strokes[c] = scribble(new Random(100 + c), 6);
+            for (int n = 0; n < 5; n++) {
+                rec.addTemplate("s" + c, jitter(strokes[c], random));
+            }
+        }
+        int pruned = 0;
+        for (int i = 0; i < 50; i++) {
+            final Gesture query = jitter(strokes[i % strokes.length], random);
+            rec.setPruning(0);
+            final NBestResult expected = rec.recognize(query, 5);
+            rec.setPruning(1);
+            final NBestResult nBest = rec.recognize(query, 5);
+            assertEquals(expected.getClasses().size(), nBest.getClasses().size());
+            for (int c = 0; c < expected.getClasses().size(); c++) {
+                assertEquals(expected.getClasses().get(c).getName(), nBest.getClasses().get(c).getName());
+                assertEquals(expected.getClasses().get(c).getDistance(), nBest.getClasses().get(c).getDistance());
+            }
+            assertEquals(expected.getTemplates().size(), nBest.getTemplates().size());
+            for (int t = 0; t < expected.getTemplates().size(); t++) {
+                assertEquals(expected.getTemplates().get(t).getDistance(), nBest.getTemplates().get(t).getDistance());
+            }
+            pruned += nBest.getPrunedTemplates();
+        }
+        assertTrue(pruned > 0);
+    }
+
+    @Test
+    public void shortlistTest() {
+        final Random random = new Random(5);
+        for (int n = 0; n < 100; n++) {
+            recognizer.addTemplate(String.valueOf(n % gestures.length), jitter(gestures[n % gestures.length], random));
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        final Map<String, List<Gesture>> samples = new TreeMap<String, List<Gesture>>();
+        for (int i = 0; i < 20; i++) {
+            final Gesture query = jitter(gestures[i % gestures.length], random);
+            rec.setShortlist(0);
+            final Result expected = rec.recognize(query);
+            rec.setShortlist(100);
+            final Result r = rec.recognize(query);
+            assertEquals(expected.getName(), r.getName());
+            assertEquals(expected.getDistance(), r.getDistance());
+            rec.setShortlist(10);
+            assertEquals(10, rec.recognize(query).getMatchedTemplates());
+            final String name = String.valueOf(i % gestures.length);
+            if (!samples.containsKey(name)) {
+                samples.put(name, new ArrayList<Gesture>());
+            }
+            samples.get(name).add(query);
+        }
+        final List<ShortlistReport> reports = rec.evaluateShortlist(samples, 10, 200);
+        assertEquals(3, reports.size());
+        assertEquals(0, reports.get(0).getSize());
+        assertEquals(1, reports.get(0).getAgreement(), 0);
+        assertEquals(1, reports.get(2).getAgreement(), 0);
+    }
+
+    @Test
+    public void compiledTrigonometryTest() {
+        final Random random = new Random(14);
+        final PolyRecognizerGSS rec = new PolyRecognizerGSS();
+        final Polyline[] templates = new Polyline[10];
+        for (int i = 0; i < templates.length; i++) {
+            final Gesture g = jitter(scribble(new Random(200 + i), 8), random);
+            rec.addTemplate("s" + i, g);
+            templates[i] = PolyRecognizerGSS.getPolyline(g);
+            // the cached trigonometry gives the same vectors as the polyline, at any rotation
+            final CompiledPolyline c = new CompiledPolyline(templates[i]);
+            final List<Vector> vectors = templates[i].getVectors();
+            assertEquals(vectors.size(), c.size());
+            for (int v = 0; v < c.size(); v++) {
+                assertEquals(vectors.get(v).getHorz(0), c.intensities[v] * c.cos[v], 0);
+                assertEquals(vectors.get(v).getVert(0), c.intensities[v] * c.sin[v], 0);
+                for (double r = -3; r < 3; r += 0.7) {
+                    assertEquals(vectors.get(v).getHorz(r),
+                            c.intensities[v] * (c.cos[v] * Math.cos(r) - c.sin[v] * Math.sin(r)), 1e-12);
+                    assertEquals(vectors.get(v).getVert(r),
+                            c.intensities[v] * (c.sin[v] * Math.cos(r) + c.cos[v] * Math.sin(r)), 1e-12);
+                }
+            }
+        }
+        // the compiled templates give the same distances as the polylines aligned and compared from scratch
+        for (int i = 0; i < 20; i++) {
+            final Gesture query = jitter(scribble(new Random(200 + i % templates.length), 8), random);
+            final Polyline u = PolyRecognizerGSS.getPolyline(query);
+            double expected = Double.POSITIVE_INFINITY;
+            for (Polyline t : templates) {
+                final PolylineAligner aligner = new PolylineAligner(u, t);
+                final Map.Entry<Polyline, Polyline> pair = aligner.align();
+                final double penalty = 1 + (double) aligner.getAddedAngles()
+                        / (aligner.getAddedAngles() + aligner.getMatches());
+                expected = Math.min(expected,
+                        penalty * rec.getDistanceAtBestAngle(pair.getKey(), pair.getValue(), false));
+            }
+            assertEquals(expected, rec.recognize(query).getDistance(), 1e-9);
+        }
+    }
+
+    @Test
+    public void rotationSearchTest() {
+        final Random random = new Random(6);
+        for (int n = 0; n < 40; n++) {
+            recognizer.addTemplate(String.valueOf(n % gestures.length), jitter(gestures[n % gestures.length], random));
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        for (int i = 0; i < 20; i++) {
+            final Gesture query = jitter(gestures[i % gestures.length], random);
+            rec.setRotationSearch(RotationSearch.GOLDEN_SECTION);
+            final Result expected = rec.recognize(query);
+            for (RotationSearch search : RotationSearch.values()) {
+                rec.setRotationSearch(search);
+                assertEquals(expected.getName(), rec.recognize(query).getName());
+            }
+        }
+    }
+
+    @Test
+    public void pointsStorageTest() throws IOException {
+        final Gesture g = jitter(gestures[0], new Random(7));
+        // the points are copied, as the gesture does not store them
+        final ArrayList<TPoint> copy = g.getPoints();
+        assertEquals(g.getNumPoints(), copy.size());
+        final TPoint second = g.getPoint(1);
+        copy.remove(0);
+        copy.get(0).setLocation(-1, -1);
+        assertEquals(copy.size() + 1, g.getNumPoints());
+        assertEquals(second, g.getPoint(1));
+        final List<TPoint> points = g.getPointsView();
+        assertEquals(g.getNumPoints(), points.size());
+        // changes to the view are reflected by the gesture
+        final int n = g.getNumPoints();
+        points.add(new TPoint(-10, -10, 5));
+        points.set(3, new TPoint(50, 60, 7));
+        points.remove(0);
+        points.subList(5, 8).clear();
+        assertEquals(n - 3, g.getNumPoints());
+        final Gesture rebuilt = new Gesture();
+        for (TPoint p : points) {
+            rebuilt.addPoint(p);
+        }
+        for (int i = 0; i < g.getNumPoints(); i++) {
+            assertEquals(rebuilt.getPoint(i), g.getPoint(i));
+            assertEquals(rebuilt.getTime(i), g.getTime(i));
+            assertEquals(rebuilt.getLength(i), g.getLength(i), 0);
+        }
+        assertEquals(rebuilt.getCentroid(), g.getCentroid());
+        assertEquals(rebuilt.getBoundingBox(), g.getBoundingBox());
+        final TPoint last = g.getPoint(g.getNumPoints() - 1);
+        assertEquals(g.getX(g.getNumPoints() - 1), last.x, 0);
+        assertEquals(g.getY(g.getNumPoints() - 1), last.y, 0);
+        assertEquals(g.getLength(), g.getLength(0, g.getNumPoints() - 1), 0);
+        assertEquals(g.getNumPoints() - 10, g.partOf(10, g.getNumPoints()).getNumPoints());
+
+        // the template keeps its own copy of the gesture
+        recognizer.addTemplate("jitter", g);
+        final Gesture template = recognizer.getTemplates().get("jitter").get(0);
+        assertNotSame(g, template);
+        points.clear();
+        assertEquals(0, g.getNumPoints());
+        assertEquals(n - 3, template.getNumPoints());
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ((PolyRecognizerGSS) recognizer).saveTemplatesPGS(os);
+        final PolyRecognizerGSS loaded = new PolyRecognizerGSS();
+        loaded.loadTemplatesPGS(new ByteArrayInputStream(os.toByteArray()));
+        for (int i = 0; i < gestures.length; i++) {
+            final Result expected = recognizer.recognize(gestures[i]);
+            final Result r = loaded.recognize(gestures[i]);
+            assertEquals(expected.getName(), r.getName());
+            assertEquals(expected.getScore(), r.getScore());
+        }
+    }
+
+    @Test
+    public void pointOnCurveTest() {
+        final Random random = new Random(15);
+        final Gesture g = jitter(scribble(random, 20), random);
+        final int n = g.getNumPoints();
+        for (int i = 0; i < 500; i++) {
+            final int from = random.nextInt(n - 1);
+            final int to = from + 1 + random.nextInt(n - from);
+            // the endpoints of the range, then random lengths also beyond it
+            final double length = i < 2 ? i : random.nextDouble() * 1.2 - 0.1;
+            final int expected = walkPointOnCurve(g.partOf(from, to).getPoints(), length);
+            assertEquals(expected, g.pointOnCurve(from, to, length));
+            assertEquals(expected, g.partOf(from, to).pointOnCurve(length));
+        }
+        assertEquals(walkPointOnCurve(g.getPoints(), 0.5), g.pointOnCurve(0.5));
+    }
+
+    @Test
+    public void binaryFormatTest() throws IOException {
+        final Gesture g = jitter(gestures[1], new Random(10));
+        g.setInfo(new GestureInfo(3, null, "jitter \u00e8", 5));
+        g.setRotInv(true);
+        recognizer.addTemplate("jitter", g);
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        rec.saveTemplatesPGS(os);
+        final byte[] bytes = os.toByteArray();
+        final PolyRecognizerGSS loaded = new PolyRecognizerGSS();
+        loaded.loadTemplatesPGS(new ByteArrayInputStream(bytes));
+        final Gesture lg = loaded.getTemplates().get("jitter").get(0);
+        assertTrue(lg.isRotInv());
+        assertEquals("jitter \u00e8", lg.getInfo().getName());
+        assertNull(lg.getInfo().getSpeed());
+        assertEquals(g.getCentroid(), lg.getCentroid());
+        assertEquals(g.getLength(), lg.getLength(), 0);
+
+        for (int i = 0; i < gestures.length; i++) {
+            assertEquals(rec.recognize(gestures[i]).getDistance(), loaded.recognize(gestures[i]).getDistance());
+        }
+        try {
+            loaded.loadTemplatesPGS(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(rec.getTemplates().size(), loaded.getTemplates().size());
+
+        // a single point template, compiled again because it was saved without checksum
+        final Gesture single = new Gesture();
+        single.addPoint(0, 0, 0);
+        final Map<String, List<Template>> illegal = new TreeMap<String, List<Template>>();
+        illegal.put("single", Arrays.asList(new Template("single", new Polyline(single, Arrays.asList(0)))));
+        final ByteArrayOutputStream illegalOs = new ByteArrayOutputStream();
+        TemplateFormat.write(illegal, 0, false, Channels.newChannel(illegalOs));
+        final byte[] illegalBytes = illegalOs.toByteArray();
+        try {
+            loaded.loadTemplatesPGS(new ByteArrayInputStream(illegalBytes));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Illegal gesture.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void legacyFormatTest() throws IOException {
+        // saved in the former format, whose gestures were serialized with their cached centroid and bounding box
+        final PolyRecognizerGSS loaded = new PolyRecognizerGSS();
+        final InputStream is = getClass().getResourceAsStream("legacy.pgs");
+        try {
+            loaded.loadTemplatesPGS(is);
+        } finally {
+            is.close();
+        }
+        final Gesture g = new Gesture();
+        for (TPoint p : gestures[1].getPoints()) {
+            g.addPoint(p);
+        }
+        g.setInfo(new GestureInfo(3, "fast", "legacy", 5));
+        g.setRotInv(true);
+        recognizer.addTemplate("info", g);
+        assertEquals(recognizer.getTemplates().keySet(), loaded.getTemplates().keySet());
+        final Gesture lg = loaded.getTemplates().get("info").get(0);
+        assertTrue(lg.isRotInv());
+        assertEquals("legacy", lg.getInfo().getName());
+        assertEquals("fast", lg.getInfo().getSpeed());
+        assertEquals(g.getCentroid(), lg.getCentroid());
+        assertEquals(g.getBoundingBox(), lg.getBoundingBox());
+        for (int i = 0; i < gestures.length; i++) {
+            final Result expected = recognizer.recognize(gestures[i]);
+            final Result actual = loaded.recognize(gestures[i]);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getDistance(), actual.getDistance());
+        }
+
+        // classes which are not part of the former format are refused
+        final Map<String, Object> alien = new TreeMap<String, Object>();
+        alien.put("a", new HashSet<String>());
+        final ByteArrayOutputStream alienBytes = new ByteArrayOutputStream();
+        final ObjectOutputStream alienOos = new ObjectOutputStream(alienBytes);
+        alienOos.writeObject(alien);
+        alienOos.close();
+        try {
+            loaded.loadTemplatesPGS(new ByteArrayInputStream(alienBytes.toByteArray()));
+            fail();
+        } catch (InvalidClassException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void mappedLibraryTest() throws IOException {
+        final Random random = new Random(12);
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        for (int i = 0; i < gestures.length; i++) {
+            rec.addTemplate("j" + i, jitter(gestures[i], random));
+            rec.addTemplate("k" + i, jitter(gestures[i], random));
+            rec.addTemplate("l" + i, jitter(gestures[i], random));
+        }
+        // skipped by the queries, drawn with a single pointer
+        final Gesture twoPointers = jitter(gestures[0], random);
+        twoPointers.setPointers(2);
+        rec.addTemplate("two", twoPointers);
+        final File file = File.createTempFile("polyrec", ".pgs");
+        file.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(file);
+        // the templates of a library are not compiled again
+        rec.saveTemplatesPGS(os);
+        os.close();
+        try {
+            MappedTemplateLibrary.open(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        os = new FileOutputStream(file);
+        rec.saveTemplatesPGS(os, true);
+        os.close();
+        final MappedTemplateLibrary library = MappedTemplateLibrary.open(file);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(rec.getClassNames(), library.getClassNames());
+            assertEquals(gestures.length * 4 + 1, library.size());
+            final PolyRecognizerGSS mapped = new PolyRecognizerGSS();
+            mapped.setLibrary(library);
+            // the templates read in place are pruned and split into chunks as the ones on the heap
+            final PolyRecognizerGSS pruned = new PolyRecognizerGSS();
+            pruned.setLibrary(library);
+            pruned.setPruning(1);
+            pruned.setParallelScan(executor, 2);
+            // half of the templates on the heap, the others in the library
+            final PolyRecognizerGSS mixed = new PolyRecognizerGSS();
+            mixed.setLibrary(library);
+            for (int i = 0; i < gestures.length; i++) {
+                mixed.addTemplate("j" + i, jitter(gestures[i], random));
+            }
+            for (int i = 0; i < gestures.length; i++) {
+                final Gesture query = jitter(gestures[i], random);
+                final Result expected = rec.recognize(query);
+                final Result r = mapped.recognize(query);
+                assertEquals(expected.getName(), r.getName());
+                assertEquals(expected.getDistance(), r.getDistance());
+                assertEquals(library.size() - 1, r.getMatchedTemplates());
+                final Result p = pruned.recognize(query);
+                assertEquals(expected.getName(), p.getName());
+                assertEquals(expected.getDistance(), p.getDistance());
+                assertEquals(library.size() - 1, p.getMatchedTemplates() + p.getPrunedTemplates());
+                final NBestResult nBest = mixed.recognize(query, 3);
+                assertEquals(library.size() - 1 + gestures.length, nBest.getMatchedTemplates());
+                assertTrue(nBest.getBest().getDistance() <= expected.getDistance());
+                final NBestResult expectedBest = rec.recognize(query, 3);
+                final NBestResult mappedBest = mapped.recognize(query, 3);
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(expectedBest.getTemplates().get(k).getDistance(),
+                            mappedBest.getTemplates().get(k).getDistance());
+                    assertEquals(expectedBest.getTemplates().get(k).getGesture().getPoints(),
+                            mappedBest.getTemplates().get(k).getGesture().getPoints());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            library.close();
+        }
+    }
+
+    @Test
+    public void xmlTest() throws Exception {
+        final Gesture g = jitter(gestures[2], new Random(14));
+        g.setRotInv(true);
+        recognizer.addTemplate("jitter", g);
+        recognizer.addTemplate("<\"a&b\">\t\u00e8\ud83d\ude00", jitter(gestures[3], new Random(15)));
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        recognizer.saveTemplatesXML(os);
+        final PolyRecognizerGSS loaded = new PolyRecognizerGSS();
+        loaded.loadTemplatesXML(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(recognizer.getClassNames(), loaded.getClassNames());
+        final Gesture lg = loaded.getTemplates().get("jitter").get(0);
+        assertTrue(lg.isRotInv());
+        assertEquals("jitter", lg.getInfo().getName());
+        assertEquals(g.getPoints(), lg.getPoints());
+        for (int i = 0; i < gestures.length; i++) {
+            assertEquals(recognizer.recognize(gestures[i]).getDistance(), loaded.recognize(gestures[i]).getDistance());
+        }
+
+        // indented, with a class without name, which is skipped
+        final String xml = "<?xml version=\"1.0\"?>\n<set>\n  <class name=\"a\">\n"
+                + "    <template pointers=\"2\" rotinv=\"false\">\n      <point x=\"0\" y=\"0\" t=\"0\"/>\n"
+                + "      <point x=\"10\" y=\"0\" t=\"1\"/>\n      <point x=\"10\" y=\"10.5\" t=\"2\"/>\n"
+                + "    </template>\n  </class>\n  <class>\n    <template pointers=\"1\" rotinv=\"false\">\n"
+                + "      <point x=\"0\" y=\"0\" t=\"0\"/>\n    </template>\n  </class>\n</set>\n";
+        final int classes = loaded.getClassNames().size();
+        loaded.loadTemplatesXML(new ByteArrayInputStream(xml.getBytes("UTF-8")), false);
+        assertEquals(classes + 1, loaded.getClassNames().size());
+        final Gesture a = loaded.getTemplates().get("a").get(0);
+        assertEquals(2, a.getPointers());
+        assertEquals(3, a.getNumPoints());
+        assertEquals(10.5, a.getY(2), 0);
+    }
+
+    @Test
+    public void storedCompilationTest() throws Exception {
+        final Random random = new Random(16);
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        for (int i = 0; i < gestures.length; i++) {
+            rec.addTemplate("s" + i, scribble(new Random(i), 15));
+        }
+        final ByteArrayOutputStream pgs = new ByteArrayOutputStream();
+        rec.saveTemplatesPGS(pgs, true);
+        final byte[] bytes = pgs.toByteArray();
+        final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        rec.saveTemplatesXML(xml, true);
+        assertTrue(xml.toString("UTF-8").contains(" vertexes=\""));
+
+        final PolyRecognizerGSS fromPgs = new PolyRecognizerGSS();
+        fromPgs.loadTemplatesPGS(new ByteArrayInputStream(bytes));
+        final PolyRecognizerGSS fromXml = new PolyRecognizerGSS();
+        fromXml.loadTemplatesXML(new ByteArrayInputStream(xml.toByteArray()));
+        // compiled with other parameters: the polylines are computed again
+        bytes[8]++;
+        final PolyRecognizerGSS fromOtherPgs = new PolyRecognizerGSS();
+        fromOtherPgs.loadTemplatesPGS(new ByteArrayInputStream(bytes));
+        final PolyRecognizerGSS fromOtherXml = new PolyRecognizerGSS();
+        fromOtherXml.loadTemplatesXML(new ByteArrayInputStream(
+                xml.toString("UTF-8").replaceFirst("compilation=\"", "compilation=\"0").getBytes("UTF-8")));
+        for (int i = 0; i < gestures.length * 2; i++) {
+            final Gesture query = jitter(i < gestures.length ? gestures[i] : scribble(new Random(i - 4), 15), random);
+            final Double expected = rec.recognize(query).getDistance();
+            assertEquals(expected, fromPgs.recognize(query).getDistance());
+            assertEquals(expected, fromXml.recognize(query).getDistance());
+            assertEquals(expected, fromOtherPgs.recognize(query).getDistance());
+            assertEquals(expected, fromOtherXml.recognize(query).getDistance());
+        }
+
+        // the stored vertexes are used as they are if the checksum matches
+        final Gesture g = scribble(new Random(3), 15);
+        final Polyline compiled = PolyRecognizerGSS.getPolyline(g);
+        final Map<String, List<Template>> single = new TreeMap<String, List<Template>>();
+        single.put("t", Arrays.asList(new Template("t", compiled)));
+        final ByteArrayOutputStream singleOs = new ByteArrayOutputStream();
+        TemplateFormat.write(single, PolyRecognizerGSS.COMPILATION_CHECKSUM, false, Channels.newChannel(singleOs));
+        final byte[] tampered = singleOs.toByteArray();
+        final int n = g.getNumPoints();
+        final int m = compiled.getNumVertexes();
+        // header, class table with the single class "t", flags and pointers of the template, points
+        final ByteBuffer vertexes = ByteBuffer.wrap(tampered).order(ByteOrder.LITTLE_ENDIAN);
+        vertexes.position(28 + 9 + 8 + 4 + 32 * n);
+        assertEquals(m, vertexes.getInt());
+        final List<Integer> tamperedIndexes = new ArrayList<Integer>();
+        for (int v = 0; v < m; v++) {
+            tamperedIndexes.add(v < m - 1 ? v : n - 1);
+            vertexes.putInt(tamperedIndexes.get(v));
+        }
+        assertFalse(tamperedIndexes.equals(compiled.getIndexes()));
+        final PolyRecognizerGSS trusting = new PolyRecognizerGSS();
+        trusting.loadTemplatesPGS(new ByteArrayInputStream(tampered));
+        assertEquals(tamperedIndexes,
+                trusting.templates.getGeneration().getClasses().get("t").get(0).getPolyline().getIndexes());
+        // the checksum is the one of the recognizer, both when saving and when loading
+        final PolyRecognizerGSS otherParams = new PolyRecognizerGSS() {
+            @Override
+            protected long getCompilationChecksum() {
+                return PolyRecognizerGSS.COMPILATION_CHECKSUM + 1;
+            }
+        };
+        otherParams.loadTemplatesPGS(new ByteArrayInputStream(tampered));
+        assertEquals(compiled.getIndexes(),
+                otherParams.templates.getGeneration().getClasses().get("t").get(0).getPolyline().getIndexes());
+        final ByteArrayOutputStream otherOs = new ByteArrayOutputStream();
+        otherParams.saveTemplatesPGS(otherOs);
+        assertEquals(PolyRecognizerGSS.COMPILATION_CHECKSUM + 1,
+                ByteBuffer.wrap(otherOs.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).getLong(8));
+        // other versions are refused
+        final byte[] otherVersion = tampered.clone();
+        ByteBuffer.wrap(otherVersion).order(ByteOrder.LITTLE_ENDIAN).putInt(4, TemplateFormat.VERSION + 1);
+        try {
+            otherParams.loadTemplatesPGS(new ByteArrayInputStream(otherVersion));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Unsupported .pgs version: " + (TemplateFormat.VERSION + 1), e.getMessage());
+        }
+    }
+
+    @Test
+    public void parallelCompilationTest() throws Exception {
+        final Random random = new Random(17);
+        final Map<String, List<Gesture>> bulk = new TreeMap<String, List<Gesture>>();
+        for (int c = 0; c < 6; c++) {
+            final List<Gesture> list = new ArrayList<Gesture>();
+            for (int i = 0; i < 15; i++) {
+                list.add(jitter(scribble(new Random(c), 10), random));
+            }
+            bulk.put("s" + c, list);
+        }
+        final PolyRecognizerGSS sequential = new PolyRecognizerGSS();
+        sequential.addTemplates(bulk);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final PolyRecognizerGSS parallel = new PolyRecognizerGSS();
+            parallel.setParallelCompilation(executor, 4);
+            final long version = parallel.getTemplatesVersion();
+            parallel.addTemplates(bulk);
+            // published in one step
+            assertEquals(version + 1, parallel.getTemplatesVersion());
+            assertSameCompilation(sequential, parallel);
+
+            // loaded in several batches
+            final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            sequential.saveTemplatesXML(xml);
+            parallel.loadTemplatesXML(new ByteArrayInputStream(xml.toByteArray()));
+            assertSameCompilation(sequential, parallel);
+            final ByteArrayOutputStream reloaded = new ByteArrayOutputStream();
+            parallel.saveTemplatesXML(reloaded);
+            assertEquals(xml.toString("UTF-8"), reloaded.toString("UTF-8"));
+            for (List<Gesture> list : bulk.values()) {
+                final Gesture query = jitter(list.get(0), random);
+                assertEquals(sequential.recognize(query).getDistance(), parallel.recognize(query).getDistance());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void alignedVertexesTest() {
+        final Random random = new Random(8);
+        final AlignedVertexes res = new AlignedVertexes();
+        final Double[] params = PolyRecognizerGSS.getDprParams();
+        for (int i = 0; i < 40; i++) {
+            final Polyline u = new DouglasPeuckerReducer(jitter(gestures[i % gestures.length], random), params).find();
+            final Polyline t = new DouglasPeuckerReducer(jitter(gestures[i / 10], random), params).find();
+            final PolylineAligner aligner = new PolylineAligner(u, t);
+            final Map.Entry<Polyline, Polyline> pair = aligner.align();
+            PolylineAligner.align(u, t, res);
+            assertEquals(aligner.getAddedAngles(), res.getAddedAngles());
+            assertEquals(aligner.getMatches(), res.getMatches());
+            assertEquals(pair.getKey().getIndexes(), toList(res.getThisVertexes(), res.getThisCount()));
+            assertEquals(pair.getValue().getIndexes(), toList(res.getOtherVertexes(), res.getOtherCount()));
+        }
+    }
+
+    @Test
+    public void bandedAlignmentTest() {
+        final Random random = new Random(9);
+        final Gesture[] scribbles = new Gesture[5];
+        for (int c = 0; c < scribbles.length; c++) {
+            scribbles[c] = scribble(new Random(c), 120);
+            for (int n = 0; n < 3; n++) {
+                recognizer.addTemplate("s" + c, jitter(scribbles[c], random));
+            }
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        int same = 0;
+        for (int i = 0; i < 20; i++) {
+            final Gesture query = jitter(scribbles[i % scribbles.length], random);
+            rec.setAlignmentBand(0);
+            final Result expected = rec.recognize(query);
+            rec.setAlignmentBand(2);
+            final Result r = rec.recognize(query);
+            assertEquals(expected.getName(), r.getName());
+            if (expected.getDistance().equals(r.getDistance())) {
+                same++;
+            }
+        }
+        assertTrue(same >= 18);
+
+        // the second sequence starts with vertexes missing from the first one, so the best path leaves the diagonal
+        final FlatNeedlemanWunsch full = new FlatNeedlemanWunsch();
+        final FlatNeedlemanWunsch banded = new FlatNeedlemanWunsch();
+        same = 0;
+        for (int i = 0; i < 20; i++) {
+            final int m = 20 + random.nextInt(20);
+            final int shift = 4 + random.nextInt(8);
+            final double[] lengthsA = new double[m];
+            final double[] slopesA = new double[m];
+            final double[] lengthsB = new double[m];
+            final double[] slopesB = new double[m];
+            for (int v = 0; v < m; v++) {
+                lengthsA[v] = (v + 1.0) / m;
+                slopesA[v] = (random.nextDouble() - 0.5) * 360;
+            }
+            for (int v = 0; v < m; v++) {
+                lengthsB[v] = (v + 1.0) / m;
+                slopesB[v] = v < shift ? (random.nextDouble() - 0.5) * 360 : slopesA[v - shift];
+            }
+            full.align(lengthsA, slopesA, m, lengthsB, slopesB, m, 0);
+            banded.align(lengthsA, slopesA, m, lengthsB, slopesB, m, 1);
+            assertEquals(0, full.widenings);
+            // the narrowest band cannot contain the path, so it is widened; it can only miss better paths
+            assertTrue(banded.widenings > 0);
+            assertTrue(banded.score <= full.score);
+            if (banded.score == full.score) {
+                same++;
+            }
+        }
+        assertTrue(same >= 18);
+    }
+
+    @Test
+    public void iterativeReductionTest() throws InterruptedException {
+        final Random random = new Random(16);
+        final Double[] params = PolyRecognizerGSS.getDprParams();
+        final List<Gesture> strokes = new ArrayList<Gesture>();
+        for (int i = 0; i < 20; i++) {
+            strokes.add(jitter(scribble(random, 5 + i * 5), random));
+            // scattered points, most of them being kept
+            final Gesture scattered = new Gesture();
+            for (int p = 0; p < 10 + i * 10; p++) {
+                scattered.addPoint(random.nextDouble() * 100, random.nextDouble() * 100, p);
+            }
+            strokes.add(scattered);
+        }
+        // zigzag of decreasing amplitude: each split only peels off one point, so the recursion of the former
+        // implementation was as deep as the stroke is long
+        final Gesture zigzag = new Gesture();
+        for (int i = 0; i < 3000; i++) {
+            zigzag.addPoint(i, (i % 2 == 0 ? 1 : -1) * (3000 - i), i);
+        }
+        strokes.add(zigzag);
+        for (final Gesture g : strokes) {
+            final int n = g.getNumPoints();
+            final double tol = g.getDiagonal() / params[1];
+            final boolean[] marked = new boolean[n];
+            marked[0] = true;
+            marked[n - 1] = true;
+            recursiveReduction(g.getPoints(), marked, tol, 0, n - 1);
+            final Set<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < n; i++) {
+                if (marked[i]) {
+                    expected.add(i);
+                }
+            }
+            // on a stack much smaller than the recursion would need
+            final DouglasPeuckerReducer reducer = new DouglasPeuckerReducer(g, params);
+            final Thread thread = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    reducer.reduceWithTolerance(g.getPoints(), tol);
+                }
+            }, "reduction", 64 * 1024);
+            thread.start();
+            thread.join();
+            assertEquals(expected, new HashSet<Integer>(reducer.vertexes));
+        }
+    }
+
+    @Test
+    public void heapFusionTest() {
+        final Random random = new Random(17);
+        final Double[] params = PolyRecognizerGSS.getDprParams();
+        int removed = 0;
+        for (int i = 0; i < 60; i++) {
+            // gentle random turns, with some coincident points, all of them being vertexes to fuse
+            final Gesture g = new Gesture();
+            double x = 0;
+            double y = 0;
+            double angle = 0;
+            for (int p = 0; p < 20 + i * 5; p++) {
+                if (random.nextInt(20) > 0) {
+                    angle += (random.nextDouble() - 0.5) * 1.2;
+                    x += (5 + random.nextDouble() * 10) * Math.cos(angle);
+                    y += (5 + random.nextDouble() * 10) * Math.sin(angle);
+                }
+                g.addPoint(x, y, p);
+            }
+            final DouglasPeuckerReducer reducer = new DouglasPeuckerReducer(g, params);
+            for (int p = 0; p < g.getNumPoints(); p++) {
+                reducer.vertexes.add(p);
+            }
+            final TreeSet<Integer> expected = new TreeSet<Integer>(reducer.vertexes);
+            scanFusion(g, expected, params[0]);
+            reducer.fusion2();
+            assertEquals(expected, reducer.vertexes);
+            removed += g.getNumPoints() - expected.size();
+        }
+        assertTrue(removed > 1000);
+    }
+
+    @Test
+    public void sessionTest() {
+        final Random random = new Random(11);
+        final Gesture[] scribbles = new Gesture[4];
+        for (int c = 0; c < scribbles.length; c++) {
+            scribbles[c] = scribble(new Random(c), 12);
+            recognizer.addTemplate("s" + c, jitter(scribbles[c], random));
+        }
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        for (int i = 0; i < 8; i++) {
+            final Gesture query = jitter(scribbles[i % scribbles.length], random);
+            final RecognitionSession session = rec.begin(i % 2 == 0 ? 0 : 10);
+            for (int p = 0; p < query.getNumPoints(); p++) {
+                session.addPoint(query.getX(p), query.getY(p), query.getTime(p));
+            }
+            assertEquals(query.getCentroid(), session.getGesture().getCentroid());
+            assertEquals(query.getBoundingBox(), session.getGesture().getBoundingBox());
+            assertEquals(query.getLength(), session.getGesture().getLength(), 0);
+            final Result expected = rec.recognize(query);
+            final int computed = session.getComputedDistances();
+            final Result r = session.end();
+            final int n = query.getNumPoints();
+            final int full = DouglasPeuckerReducer.douglasPeuckerReduction(query, 0, n - 1, new boolean[n],
+                    query.getDiagonal() / PolyRecognizerGSS.getDprParams()[1]);
+            assertEquals(expected.getName(), r.getName());
+            if (i % 2 == 0) {
+                // the polyline is found once on the whole gesture
+                assertEquals(expected.getDistance(), r.getDistance());
+                assertEquals(full, session.getComputedDistances() - computed);
+            } else {
+                // only the points after the last vertexes kept during the stroke are reduced at the end
+                assertTrue(session.getComputedDistances() - computed > 0);
+                assertTrue(session.getComputedDistances() - computed < full / 4);
+            }
+            assertTrue(session.isEnded());
+            try {
+                session.addPoint(0, 0, 0);
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertNull(rec.begin().end());
+    }
+
+    @Test
+    public void prefixRecognitionTest() {
+        final Random random = new Random(13);
+        final Gesture[] scribbles = new Gesture[4];
+        final PolyRecognizerGSS rec = (PolyRecognizerGSS) recognizer;
+        List<Template> previous = Collections.emptyList();
+        for (int c = 0; c < scribbles.length; c++) {
+            scribbles[c] = scribble(new Random(c), 12);
+            rec.addTemplate("s" + c, jitter(scribbles[c], random));
+            rec.addTemplate("s" + c, jitter(scribbles[c], random));
+            assertNotNull(rec.recognizePrefix(scribbles[c]));
+            // the prefixes of the templates added so far are reused
+            final List<Template> prefixes = rec.getPrefixIndex(rec.templates.getGeneration()).getTemplates();
+            assertTrue(prefixes.size() > previous.size());
+            for (int i = 0; i < previous.size(); i++) {
+                assertSame(previous.get(i), prefixes.get(i));
+            }
+            previous = prefixes;
+        }
+        int correct = 0;
+        for (int i = 0; i < 8; i++) {
+            final Gesture query = jitter(scribbles[i % scribbles.length], random);
+            final Gesture prefix = query.partOf(0, query.getNumPoints() * 7 / 10);
+            final PrefixResult r = rec.recognizePrefix(prefix);
+            if (r.getName().equals("s" + i % scribbles.length)) {
+                correct++;
+                assertTrue(r.getFraction() >= .5 && r.getFraction() <= .9);
+            }
+            assertTrue(r.getMargin() >= 0);
+            assertNull(rec.recognizePrefix(prefix, r.getMargin() + 1e-6));
+        }
+        assertTrue(correct >= 7);
+        rec.setPrefixFractions(1);
+        final Gesture query = jitter(scribbles[0], random);
+        final Result expected = rec.recognize(query);
+        final PrefixResult r = rec.recognizePrefix(query);
+        assertEquals(expected.getName(), r.getName());
+        assertEquals(expected.getDistance(), r.getDistance());
+        assertEquals(1, r.getFraction(), 0);
+    }
+
+    private static Gesture scribble(Random random, int segments) {
+        final Gesture res = new Gesture();
+        double x = 0;
+        double y = 0;
+        double angle = 0;
+        for (int i = 0; i < segments; i++) {
+            angle += (random.nextDouble() - 0.5) * 2.5;
+            final double length = 20 + random.nextDouble() * 30;
+            x += length * Math.cos(angle);
+            y += length * Math.sin(angle);
+            res.addPoint(new TPoint(x, y, i));
+        }
+        return res;
+    }
+
+    // recursive reduction of the former implementation of DouglasPeuckerReducer
+    private static void recursiveReduction(List<TPoint> shape, boolean[] marked, double tol, int firstIdx,
+            int lastIdx) {
+        if (lastIdx <= firstIdx + 1) {
+            return;
+        }
+        double maxDistance = 0.0;
+        int indexFarthest = 0;
+        for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
+            final double distance = DouglasPeuckerReducer.orthogonalDistance(shape.get(idx), shape.get(firstIdx),
+                    shape.get(lastIdx));
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                indexFarthest = idx;
+            }
+        }
+        if (maxDistance > tol) {
+            marked[indexFarthest] = true;
+            recursiveReduction(shape, marked, tol, firstIdx, indexFarthest);
+            recursiveReduction(shape, marked, tol, indexFarthest, lastIdx);
+        }
+    }
+
+    // fusion of the former implementation of PolylineFinder, rescanning all of the vertexes after each removal
+    private static void scanFusion(Gesture g, TreeSet<Integer> vertexes, double slopeTreshold) {
+        while (vertexes.size() > 2) {
+            int min = 0;
+            double smallestMeasure = 360;
+            final Integer[] v = vertexes.toArray(new Integer[vertexes.size()]);
+            for (int i = 1; i < v.length - 1; i++) {
+                final double angle = Math.abs(180 - Polyline.angle(g.getPoint(v[i - 1]), g.getPoint(v[i + 1]),
+                        g.getPoint(v[i]), true));
+                if (angle < smallestMeasure) {
+                    min = v[i];
+                    smallestMeasure = angle;
+                }
+            }
+            if (smallestMeasure > slopeTreshold) {
+                return;
+            }
+            vertexes.remove(min);
+        }
+    }
+
+    // linear search of the former implementation of Gesture.pointOnCurve(double)
+    private static int walkPointOnCurve(List<TPoint> points, double length) {
+        double total = 0;
+        for (int i = 1; i < points.size(); i++) {
+            total += points.get(i).distance(points.get(i - 1));
+        }
+        final double referenceLength = total * length;
+        double tempLength = 0;
+        for (int i = 1; i < points.size(); i++) {
+            tempLength += points.get(i).distance(points.get(i - 1));
+            if (tempLength >= referenceLength) {
+                return i;
+            }
+        }
+        return points.size() - 1;
+    }
+
+    private static void assertSameCompilation(Recognizer expected, Recognizer actual) {
+        final List<Template> e = expected.templates.getGeneration().getTemplates();
+        final List<Template> a = actual.templates.getGeneration().getTemplates();
+        assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(e.get(i).getName(), a.get(i).getName());
+            assertEquals(e.get(i).getGesture().getNumPoints(), a.get(i).getGesture().getNumPoints());
+            assertEquals(e.get(i).getPolyline().getIndexes(), a.get(i).getPolyline().getIndexes());
+            final CompiledPolyline ce = e.get(i).getCompiled();
+            final CompiledPolyline ca = a.get(i).getCompiled();
+            assertTrue(Arrays.equals(ce.intensities, ca.intensities));
+            assertTrue(Arrays.equals(ce.angles, ca.angles));
+            assertTrue(Arrays.equals(ce.lengthsAtAngles, ca.lengthsAtAngles));
+            assertTrue(Arrays.equals(ce.slopeChanges, ca.slopeChanges));
+        }
+    }
+
+    private static List<Integer> toList(int[] values, int count) {
+        final List<Integer> res = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            res.add(values[i]);
+        }
+        return res;
+    }
+
+    private static Gesture jitter(Gesture gesture, Random random) {
+        final Gesture res = new Gesture();
+        final List<TPoint> points = gesture.getPoints();
+        for (int i = 0; i < points.size() - 1; i++) {
+            final TPoint p = points.get(i);
+            final TPoint q = points.get(i + 1);
+            for (int s = 0; s < 10; s++) {
+                res.addPoint(new TPoint(p.x + (q.x - p.x) * s / 10 + random.nextGaussian() * 2,
+                        p.y + (q.y - p.y) * s / 10 + random.nextGaussian() * 2, 0));
+            }
+        }
+        res.addPoint(new TPoint(points.get(points.size() - 1)));
+        return res;
+    }
+
 }